@@ -135,6 +135,9 @@ public class HomeFragment extends Fragment implements
             }
         };
 
+        // Filter changes swap the query; diff in the background instead of blanking the list
+        mAdapter.setAsyncDiffing(true);
+
         mMoviesRecycler.setLayoutManager(new LinearLayoutManager(getContext()));
         mMoviesRecycler.setAdapter(mAdapter);
     }
@@ -23,6 +23,8 @@ import com.google.android.material.snackbar.Snackbar;
 import com.moovie.adapter.PlatformAdapter;
 import com.moovie.adapter.RatingAdapter;
 import com.moovie.app.AppStore;
+import com.moovie.data.MovieIdResolver;
+import com.moovie.data.RankedListRepository;
 import com.moovie.data.WatchmodeRepository;
 import com.moovie.model.Movie;
 import com.moovie.model.MovieListItem;
@@ -30,6 +32,7 @@ import com.moovie.model.Rating;
 import com.moovie.model.watchmode.Platform;
 import com.moovie.util.FirebaseUtil;
 import com.moovie.util.ImageUtil;
+import com.moovie.util.TmdbPoster;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
@@ -37,6 +40,7 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.Source;
 
 import java.util.List;
 
@@ -173,6 +177,13 @@ public class MovieDetailActivity extends AppCompatActivity
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Drop any platform lookup this screen no longer needs
+        AppStore.getWatchmodeRepo(this).cancel(this);
+    }
+
     private void loadUserMovieStatus() {
         mUserRef.collection("watched")
                 .document(mMovieRef.getId())
@@ -293,20 +304,57 @@ public class MovieDetailActivity extends AppCompatActivity
             return;
         }
 
+        if (snapshot == null || !snapshot.exists()) {
+            if (snapshot != null && snapshot.getMetadata().isFromCache()) {
+                // A cache miss, e.g. offline: only the server can say the movie is gone
+                confirmMovieMissing();
+            } else {
+                onMovieMissing(mMovieRef.getId());
+            }
+            return;
+        }
+
         mCurrentMovie = snapshot.toObject(Movie.class);
         onMovieLoaded(mCurrentMovie);
     }
 
+    private void confirmMovieMissing() {
+        mMovieRef.get(Source.SERVER).addOnCompleteListener(task -> {
+            // Unreachable server: keep waiting, the listener delivers the movie once it syncs
+            if (!task.isSuccessful()) {
+                Log.d(TAG, "Movie not in cache and server unreachable", task.getException());
+                return;
+            }
+            if (!task.getResult().exists() && !isFinishing()) onMovieMissing(mMovieRef.getId());
+        });
+    }
+
+    // The movie may have been merged into another document by the dedupe job
+    private void onMovieMissing(String movieId) {
+        MovieIdResolver.getInstance(this).followRedirect(movieId)
+                .addOnCompleteListener(task -> {
+                    String canonicalId = task.isSuccessful() ? task.getResult() : null;
+                    if (canonicalId != null && !isFinishing()) {
+                        Intent intent = new Intent(this, MovieDetailActivity.class);
+                        intent.putExtra(KEY_MOVIE_ID, canonicalId);
+                        startActivity(intent);
+                    } else {
+                        Toast.makeText(this, "Movie not found", Toast.LENGTH_SHORT).show();
+                    }
+                    finish();
+                });
+    }
+
     private void onMovieLoaded(Movie movie) {
         mCurrentMovie = movie;
         mTitleView.setText(movie.getTitle());
         mRatingIndicator.setRating((float) movie.getAvgRating());
         mNumRatingsView.setText(getString(R.string.fmt_num_ratings, movie.getNumRatings()));
 
-        String imageUrl = ImageUtil.buildImageUrl(movie.getPosterUrl());
-        if (imageUrl != null) {
+        TmdbPoster poster = ImageUtil.poster(movie.getPosterUrl());
+        if (poster != null) {
             Glide.with(mImageView.getContext())
-                    .load(imageUrl)
+                    .load(poster)
                     .placeholder(R.drawable.ic_movie_placeholder)
                     .error(R.drawable.ic_movie_placeholder)
                     .into(mImageView);
@@ -318,7 +366,8 @@ public class MovieDetailActivity extends AppCompatActivity
         WatchmodeRepository repo = AppStore.getWatchmodeRepo(this);
 
 
-        repo.fetchPlatformsByTmdbId(movie.getTmdbId(), new WatchmodeRepository.PlatformsCallback() {
+        // Keyed by this screen so a newer snapshot supersedes a lookup still in flight
+        repo.fetchPlatformsByTmdbId(movie.getTmdbId(), this, new WatchmodeRepository.PlatformsCallback() {
             @Override
             public void onSuccess(String titleId, List<Platform> platforms) {
                 runOnUiThread(() -> renderPlatforms(platforms, titleId));
@@ -366,21 +415,14 @@ public class MovieDetailActivity extends AppCompatActivity
         }
 
         // Need to calculate rating based on rank
-        mUserRef.collection("watched").whereEqualTo("ranked", true).get()
-            .addOnSuccessListener(querySnapshot -> {
-                int totalRanked = querySnapshot.size();
-                
-                // Check if this movie is in the list
-                DocumentSnapshot movieDoc = null;
-                for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                    // We are matching by document ID (which is movie ID)
-                    if (doc.getId().equals(mMovieRef.getId())) {
-                        movieDoc = doc;
-                        break;
-                    }
-                }
+        RankedListRepository ranked = RankedListRepository.getInstance();
+        ranked.load()
+            .addOnSuccessListener(documents -> {
+                // Watched documents share the movie's document ID
+                // Calculate percentile (0-based calculation so 0/5 = 0.0 = top)
+                double percentile = ranked.getFractionAbove(mMovieRef.getId());
 
-                if (movieDoc == null) {
+                if (percentile < 0) {
                     Snackbar.make(findViewById(android.R.id.content),
                             "Please rank this movie first in the Ratings tab.", Snackbar.LENGTH_LONG)
                             .setAction("Go", v -> {
@@ -389,14 +431,6 @@ public class MovieDetailActivity extends AppCompatActivity
                     return;
                 }
 
-                MovieListItem item = movieDoc.toObject(MovieListItem.class);
-                if (item == null) return;
-
-                int rankIndex = item.getRankIndex(); // 0-based
-                
-                // Calculate percentile (0-based calculation so 0/5 = 0.0 = top)
-                double percentile = (double) rankIndex / (double) totalRanked;
-                
                 double calculatedRating = 0.5;
                 if (percentile <= 0.1) calculatedRating = 5.0;
                 else if (percentile <= 0.2) calculatedRating = 4.5;
@@ -22,17 +22,20 @@ import com.bumptech.glide.Glide;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QuerySnapshot;
-import com.moovie.model.MovieListItem;
-import com.moovie.model.TMDBResponse;
-import com.moovie.network.TMDBService;
+import com.google.firebase.firestore.Source;
+import com.moovie.data.CatalogMetadataRepository;
+import com.moovie.model.Movie;
 import com.moovie.util.FirebaseUtil;
-import com.moovie.util.TMDBApiClient;
-
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
+import com.moovie.util.GenreUtil;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -60,6 +63,7 @@ public class ProfileFragment extends Fragment {
 
     private FirebaseAuth mAuth;
     private FirebaseFirestore mFirestore;
+    private boolean mStatsShown;
 
     /**
      * Default constructor for ProfileFragment.
@@ -162,121 +166,146 @@ public class ProfileFragment extends Fragment {
         FirebaseUser user = mAuth.getCurrentUser();
         if (user == null) return;
 
-        String uid = user.getUid();
-
-        // Load watched movies count
-        mFirestore.collection("users").document(uid)
-                .collection("watched")
-                .get()
-                .addOnSuccessListener(watchedSnapshot -> {
-                    int totalWatched = watchedSnapshot.size();
-                    statsMoviesWatched.setText(String.valueOf(totalWatched));
-
-                    Log.d("ProfileFragment", "Total watched movies: " + totalWatched);
+        DocumentReference userRef = mFirestore.collection("users").document(user.getUid());
 
-                    // Count ranked movies and find top genre
-                    int rankedCount = 0;
-                    Map<String, Integer> genreCounts = new HashMap<>();
-
-                    for (com.google.firebase.firestore.DocumentSnapshot doc : watchedSnapshot.getDocuments()) {
-                        MovieListItem item = doc.toObject(MovieListItem.class);
-
-                        Log.d("ProfileFragment", "Movie: " + (item != null ? item.getTitle() : "null"));
+        // Kept current by the updateUserStats cloud triggers, so one read covers everything
+        DocumentReference statsRef = userRef.collection("stats").document("summary");
 
-                        if (item != null) {
-                            // Count ranked movies (must have ranked=true)
-                            if (item.isRanked() && item.getRankIndex() >= 0) {
-                                rankedCount++;
-                            }
-
-                            // Track genres
-                            String genre = item.getGenre();
-                            Log.d("ProfileFragment", "  Genre: " + genre);
-
-                            if (genre != null && !genre.isEmpty()) {
-                                genreCounts.put(genre, genreCounts.getOrDefault(genre, 0) + 1);
-                                Log.d("ProfileFragment", "  Added genre: " + genre + " (count now: " + genreCounts.get(genre) + ")");
-                            } else {
-                                Log.d("ProfileFragment", "  Genre is null or empty!");
-                            }
-                        }
+        // Show the last known stats at once, then whatever the server has now
+        statsRef.get(Source.CACHE).addOnSuccessListener(stats -> {
+            if (stats.exists()) showUserStats(stats);
+        });
+        statsRef.get(Source.SERVER)
+                .addOnSuccessListener(stats -> {
+                    if (stats.exists()) {
+                        showUserStats(stats);
+                    } else {
+                        initUserStats(userRef);
                     }
+                })
+                .addOnFailureListener(e -> {
+                    Log.w("ProfileFragment", "Stats document unavailable", e);
+                    initUserStats(userRef);
+                });
+    }
 
-                    Log.d("ProfileFragment", "Ranked count: " + rankedCount);
-                    Log.d("ProfileFragment", "Genre map: " + genreCounts.toString());
+    // Lists from before the stats triggers: the server counts them once and keeps the result
+    private void initUserStats(DocumentReference userRef) {
+        FirebaseUtil.getFunctions().getHttpsCallable("initUserStats").call()
+                .addOnSuccessListener(result -> {
+                    if (!(result.getData() instanceof Map)) {
+                        loadUserStatsByCount(userRef);
+                        return;
+                    }
+                    Map<?, ?> stats = (Map<?, ?>) result.getData();
+                    showUserStats(countOf(stats.get("watched")), countOf(stats.get("ranked")),
+                            countOf(stats.get("wantToWatch")), genreCountsOf(stats.get("genres")));
+                })
+                .addOnFailureListener(e -> {
+                    Log.w("ProfileFragment", "Stats could not be created, counting instead", e);
+                    loadUserStatsByCount(userRef);
+                });
+    }
 
-                    statsMoviesRanked.setText(String.valueOf(rankedCount));
+    private void showUserStats(DocumentSnapshot stats) {
+        showUserStats(countOf(stats.get("watched")), countOf(stats.get("ranked")),
+                countOf(stats.get("wantToWatch")), genreCountsOf(stats.get("genres")));
+    }
 
-                    // Find most common genre
-                    if (!genreCounts.isEmpty()) {
-                        String topGenre = findTopGenre(genreCounts);
-                        Log.d("ProfileFragment", "Top genre: " + topGenre);
-                        statsTopGenre.setText(topGenre);
+    // Only when initUserStats is unreachable: server-side counts, one read per query
+    private void loadUserStatsByCount(DocumentReference userRef) {
+        CollectionReference watched = userRef.collection("watched");
+        List<String> genres = new ArrayList<>(GenreUtil.getGenreNames());
+
+        List<Task<AggregateQuerySnapshot>> counts = new ArrayList<>();
+        counts.add(watched.count().get(AggregateSource.SERVER));
+        counts.add(watched.whereEqualTo("ranked", true).count().get(AggregateSource.SERVER));
+        counts.add(userRef.collection("wantToWatch").count().get(AggregateSource.SERVER));
+        for (String genre : genres) {
+            counts.add(watched.whereEqualTo(Movie.FIELD_GENRE, genre).count().get(AggregateSource.SERVER));
+        }
 
-                        // Show genre breakdown
-                        String breakdown = createGenreBreakdown(genreCounts, totalWatched);
-                        statsGenreBreakdown.setText(breakdown);
-                    } else {
-                        Log.d("ProfileFragment", "Genre counts is empty - showing N/A");
-                        statsTopGenre.setText("N/A");
-                        statsGenreBreakdown.setText("Add movies to see genre breakdown");
+        Tasks.whenAllSuccess(counts)
+                .addOnSuccessListener(results -> {
+                    Map<String, Integer> genreCounts = new HashMap<>();
+                    for (int i = 0; i < genres.size(); i++) {
+                        int count = (int) ((AggregateQuerySnapshot) results.get(3 + i)).getCount();
+                        if (count > 0) genreCounts.put(genres.get(i), count);
                     }
-
-                    // Calculate percentage of all movies in database that user has seen
-                    calculatePercentageSeen(totalWatched);
+                    showUserStats((int) ((AggregateQuerySnapshot) results.get(0)).getCount(),
+                            (int) ((AggregateQuerySnapshot) results.get(1)).getCount(),
+                            (int) ((AggregateQuerySnapshot) results.get(2)).getCount(),
+                            genreCounts);
                 })
                 .addOnFailureListener(e -> {
+                    Log.e("ProfileFragment", "Error counting stats", e);
+                    // Offline, keep the cached stats rather than zeroing them
+                    if (mStatsShown) return;
                     statsMoviesWatched.setText("0");
                     statsMoviesRanked.setText("0");
-                });
-
-        // Load want to watch count
-        mFirestore.collection("users").document(uid)
-                .collection("wantToWatch")
-                .get()
-                .addOnSuccessListener(wantSnapshot -> {
-                    statsWantToWatch.setText(String.valueOf(wantSnapshot.size()));
-                })
-                .addOnFailureListener(e -> {
                     statsWantToWatch.setText("0");
                 });
     }
 
-    private void calculatePercentageSeen(int watchedCount) {
+    private void showUserStats(int totalWatched, int rankedCount, int wantToWatch,
+                               Map<String, Integer> genreCounts) {
+        if (!isAdded()) return;
+        mStatsShown = true;
 
-        TMDBService service = TMDBApiClient.getClient().create(TMDBService.class);
+        statsMoviesWatched.setText(String.valueOf(totalWatched));
+        statsMoviesRanked.setText(String.valueOf(rankedCount));
+        statsWantToWatch.setText(String.valueOf(wantToWatch));
 
-        service.getTotalMovies(BuildConfig.TMDB_API_KEY).enqueue(new Callback<TMDBResponse>() {
-            @Override
-            public void onResponse(Call<TMDBResponse> call, Response<TMDBResponse> response) {
-                Log.d("ProfileFragment", "Response:" + response );
+        // Find most common genre
+        if (!genreCounts.isEmpty()) {
+            statsTopGenre.setText(findTopGenre(genreCounts));
 
-                if (!response.isSuccessful() || response.body() == null) {
-                    Log.d("ProfileFragment", "Response unsuccessful." );
-                    statsPercentageSeen.setText("N/A");
-                    return;
-                }
+            // Show genre breakdown
+            String breakdown = createGenreBreakdown(genreCounts, totalWatched);
+            statsGenreBreakdown.setText(breakdown);
+        } else {
+            statsTopGenre.setText("N/A");
+            statsGenreBreakdown.setText("Add movies to see genre breakdown");
+        }
 
-                int totalMovies = response.body().getTotalResults();
-                Log.d("ProfileFragment", "Total movies:" + totalMovies );
+        // Calculate percentage of all movies in database that user has seen
+        calculatePercentageSeen(totalWatched);
+    }
 
+    private static int countOf(Object count) {
+        return count instanceof Number ? Math.max(0, ((Number) count).intValue()) : 0;
+    }
 
-                if (totalMovies > 0) {
-                    double percentage = (watchedCount * 100.0) / totalMovies;
-                    statsPercentageSeen.setText(String.format("%.5f%%", percentage));
-                    statsPercentageAvailable.setText("Out of " + String.valueOf(totalMovies) + " Movies");
-                } else {
-                    statsPercentageSeen.setText("0%");
-                }
+    private static Map<String, Integer> genreCountsOf(Object genres) {
+        Map<String, Integer> genreCounts = new HashMap<>();
+        if (genres instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) genres).entrySet()) {
+                int count = countOf(entry.getValue());
+                if (count > 0) genreCounts.put(String.valueOf(entry.getKey()), count);
             }
+        }
+        return genreCounts;
+    }
 
-            @Override
-            public void onFailure(Call<TMDBResponse> call, Throwable t) {
-                statsPercentageSeen.setText("N/A");
-            }
+    private void calculatePercentageSeen(int watchedCount) {
+        // Served from disk; refreshed in the background once a week
+        CatalogMetadataRepository catalog = CatalogMetadataRepository.getInstance(requireContext());
+        showPercentageSeen(watchedCount, catalog.getTotalMovies());
+        catalog.refreshIfStale(() -> {
+            if (isAdded()) showPercentageSeen(watchedCount, catalog.getTotalMovies());
         });
     }
 
+    private void showPercentageSeen(int watchedCount, int totalMovies) {
+        if (totalMovies > 0) {
+            double percentage = (watchedCount * 100.0) / totalMovies;
+            statsPercentageSeen.setText(String.format("%.5f%%", percentage));
+            statsPercentageAvailable.setText("Out of " + String.valueOf(totalMovies) + " Movies");
+        } else {
+            statsPercentageSeen.setText("N/A");
+        }
+    }
+
 
     private String createGenreBreakdown(Map<String, Integer> genreCounts, int total) {
         // Sort genres by count (descending)
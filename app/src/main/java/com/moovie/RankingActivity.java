@@ -1,5 +1,6 @@
 package com.moovie;
 
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -12,15 +13,22 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 
 import com.bumptech.glide.Glide;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.material.switchmaterial.SwitchMaterial;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.WriteBatch;
+import com.moovie.data.MovieIdResolver;
+import com.moovie.data.RankedListRepository;
 import com.moovie.model.MovieListItem;
+import com.moovie.util.ChunkedBatchWriter;
 import com.moovie.util.FirebaseUtil;
 import com.moovie.util.ImageUtil;
+import com.moovie.util.RankKeys;
+import com.moovie.util.RankingEngine;
+import com.moovie.util.TmdbPoster;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -33,6 +41,10 @@ public class RankingActivity extends AppCompatActivity {
     private static final String TAG = "RankingActivity";
     public static final String KEY_MOVIE_ID = "key_movie_id";
 
+    // Approximate placement is off unless the user turns it on
+    private static final String PREFS_SETTINGS = "ranking_settings";
+    private static final String KEY_QUICK_RANKING = "quick_ranking";
+
     private ImageView mNewMovieImage;
     private TextView mNewMovieTitle;
     private ImageView mComparisonMovieImage;
@@ -41,17 +53,19 @@ public class RankingActivity extends AppCompatActivity {
     private TextView mQuestionText;
     private Button mButtonBetter;
     private Button mButtonWorse;
+    private SwitchMaterial mQuickRankingSwitch;
 
     private FirebaseFirestore mFirestore;
     private DocumentReference mNewMovieRef;
+    private DocumentSnapshot mNewMovieSnapshot;
+    private DocumentReference mJournalRef;
     private CollectionReference mWatchedCollection;
 
     private MovieListItem mNewMovie;
     private List<DocumentSnapshot> mRankedMovies = new ArrayList<>();
 
-    // Binary Search State
-    private int mLow;
-    private int mHigh;
+    // Comparison state
+    private RankingEngine mEngine;
     private int mMid;
 
     /**
@@ -72,6 +86,7 @@ public class RankingActivity extends AppCompatActivity {
         mQuestionText = findViewById(R.id.text_comparison_question);
         mButtonBetter = findViewById(R.id.button_better);
         mButtonWorse = findViewById(R.id.button_worse);
+        mQuickRankingSwitch = findViewById(R.id.switch_quick_ranking);
 
         String movieId = getIntent().getStringExtra(KEY_MOVIE_ID);
         if (movieId == null) {
@@ -82,17 +97,37 @@ public class RankingActivity extends AppCompatActivity {
         String userId = FirebaseUtil.getAuth().getCurrentUser().getUid();
         mWatchedCollection = mFirestore.collection("users").document(userId).collection("watched");
         mNewMovieRef = mWatchedCollection.document(movieId);
+        mJournalRef = ChunkedBatchWriter.journal(mFirestore, userId, "rankOrder");
 
         // Load the new movie and the list of ranked movies
         loadData();
 
         mButtonBetter.setOnClickListener(v -> onUserChoice(true));
         mButtonWorse.setOnClickListener(v -> onUserChoice(false));
+
+        SharedPreferences settings = getSharedPreferences(PREFS_SETTINGS, MODE_PRIVATE);
+        mQuickRankingSwitch.setChecked(settings.getBoolean(KEY_QUICK_RANKING, false));
+        mQuickRankingSwitch.setOnCheckedChangeListener((button, checked) -> {
+            settings.edit().putBoolean(KEY_QUICK_RANKING, checked).apply();
+            // Checked again after the next answer, so the current question still gets asked
+            if (mEngine != null) mEngine.setApproximate(checked);
+        });
     }
 
     private void loadData() {
+        // Finish a reorder that was interrupted, so the list compared against is consistent
+        ChunkedBatchWriter.resume(mFirestore, mJournalRef, null).addOnCompleteListener(resumed -> {
+            if (!resumed.isSuccessful()) {
+                Log.w(TAG, "Could not resume interrupted reorder", resumed.getException());
+            }
+            loadMovies();
+        });
+    }
+
+    private void loadMovies() {
         // 1. Get the movie to rank
         mNewMovieRef.get().addOnSuccessListener(snapshot -> {
+            mNewMovieSnapshot = snapshot;
             mNewMovie = snapshot.toObject(MovieListItem.class);
             if (mNewMovie == null) {
                 finish();
@@ -100,20 +135,23 @@ public class RankingActivity extends AppCompatActivity {
             }
             displayNewMovie();
 
-            // 2. Get all already ranked movies, ordered by rankIndex
-            mWatchedCollection
-                    .whereEqualTo("ranked", true)
-                    .orderBy("rankIndex", Query.Direction.ASCENDING)
-                    .get()
-                    .addOnSuccessListener(querySnapshot -> {
-                        mRankedMovies = querySnapshot.getDocuments();
-                        startBinarySearch();
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Error loading ranked movies", e);
-                        Toast.makeText(this, "Error loading data", Toast.LENGTH_SHORT).show();
-                        finish();
-                    });
+            // 2. Get all already ranked movies, best first, and meanwhile where other users
+            // ranked this one
+            String movieDocId = MovieIdResolver.getInstance(this).getCached(mNewMovie.getTmdbId());
+            if (movieDocId == null) movieDocId = MovieIdResolver.docIdFor(mNewMovie.getTmdbId());
+            Task<DocumentSnapshot> globalTask = mFirestore.collection("movies").document(movieDocId).get();
+            Task<List<DocumentSnapshot>> rankedTask = RankedListRepository.getInstance().load();
+
+            Tasks.whenAllComplete(globalTask, rankedTask).addOnCompleteListener(done -> {
+                if (!rankedTask.isSuccessful()) {
+                    Log.e(TAG, "Error loading ranked movies", rankedTask.getException());
+                    Toast.makeText(this, "Error loading data", Toast.LENGTH_SHORT).show();
+                    finish();
+                    return;
+                }
+                mRankedMovies = rankedTask.getResult();
+                startComparisons(globalTask.isSuccessful() ? globalTask.getResult() : null);
+            });
         }).addOnFailureListener(e -> {
             Log.e(TAG, "Error loading new movie", e);
             finish();
@@ -122,39 +160,60 @@ public class RankingActivity extends AppCompatActivity {
 
     private void displayNewMovie() {
         mNewMovieTitle.setText(mNewMovie.getTitle());
-        String imageUrl = ImageUtil.buildImageUrl(mNewMovie.getPosterUrl());
-        if (imageUrl != null) {
-            Glide.with(this).load(imageUrl).into(mNewMovieImage);
+        TmdbPoster poster = ImageUtil.poster(mNewMovie.getPosterUrl());
+        if (poster != null) {
+            Glide.with(this).load(poster).into(mNewMovieImage);
         }
     }
 
-    private void startBinarySearch() {
-        if (mRankedMovies.isEmpty()) {
-            // No ranked movies yet, this is the first one (index 0)
-            saveRank(0);
-        } else {
-            mLow = 0;
-            mHigh = mRankedMovies.size() - 1;
-            showNextComparison();
+    private void startComparisons(DocumentSnapshot movieDoc) {
+        mEngine = new RankingEngine(mRankedMovies.size(), buildPrior(movieDoc));
+        mEngine.setApproximate(mQuickRankingSwitch.isChecked());
+        showNextComparison();
+    }
+
+    // Guess where the movie goes from other users' rankings and the user's same-genre movies
+    private RankingEngine.Prior buildPrior(DocumentSnapshot movieDoc) {
+        RankingEngine.Prior prior = new RankingEngine.Prior();
+
+        if (movieDoc != null) {
+            Double avgRankNorm = movieDoc.getDouble("avgRankNorm");
+            Long numRankings = movieDoc.getLong("numRankings");
+            if (avgRankNorm != null && numRankings != null && numRankings > 0) {
+                prior.setGlobalNorm(avgRankNorm);
+            }
+        }
+
+        String genre = mNewMovie.getGenre();
+        if (genre != null && !mRankedMovies.isEmpty()) {
+            double sum = 0;
+            int count = 0;
+            for (int i = 0; i < mRankedMovies.size(); i++) {
+                if (genre.equals(mRankedMovies.get(i).getString("genre"))) {
+                    sum += MovieListItem.normalizeRank(i, mRankedMovies.size());
+                    count++;
+                }
+            }
+            if (count > 0) prior.setGenreNorm(sum / count, count);
         }
+        return prior;
     }
 
     private void showNextComparison() {
-        if (mLow > mHigh) {
-            // Binary search complete. Insert at mLow.
-            saveRank(mLow);
+        if (mEngine.isDone()) {
+            saveRank(mEngine.getPosition());
             return;
         }
 
-        mMid = (mLow + mHigh) / 2;
+        mMid = mEngine.nextComparison();
         DocumentSnapshot comparisonSnapshot = mRankedMovies.get(mMid);
-        MovieListItem comparisonMovie = comparisonSnapshot.toObject(MovieListItem.class);
+        MovieListItem comparisonMovie = RankedListRepository.getInstance().getItem(comparisonSnapshot);
 
         if (comparisonMovie != null) {
             mComparisonMovieTitle.setText(comparisonMovie.getTitle());
-            String imageUrl = ImageUtil.buildImageUrl(comparisonMovie.getPosterUrl());
-            if (imageUrl != null) {
-                Glide.with(this).load(imageUrl).into(mComparisonMovieImage);
+            TmdbPoster poster = ImageUtil.poster(comparisonMovie.getPosterUrl());
+            if (poster != null) {
+                Glide.with(this).load(poster).into(mComparisonMovieImage);
             } else {
                 mComparisonMovieImage.setImageResource(R.drawable.ic_movie_placeholder);
             }
@@ -164,38 +223,41 @@ public class RankingActivity extends AppCompatActivity {
     private void onUserChoice(boolean isBetter) {
         // "Better" means it should have a LOWER index (closer to 0)
         // "Worse" means it should have a HIGHER index
-        
-        if (isBetter) {
-            // New movie is better than mid. It belongs in the upper half (lower indices).
-            // So we eliminate the bottom half (higher indices).
-            mHigh = mMid - 1;
-        } else {
-            // New movie is worse than mid. It belongs in the lower half (higher indices).
-            // So we eliminate the upper half (lower indices).
-            mLow = mMid + 1;
-        }
+        if (mEngine == null || mEngine.isDone()) return;
+        mEngine.answer(isBetter);
         showNextComparison();
     }
 
     private void saveRank(int newIndex) {
-        WriteBatch batch = mFirestore.batch();
-
-        // 1. Shift existing movies down if necessary
-        // Any movie with rankIndex >= newIndex needs to be incremented
+        List<Double> keys = new ArrayList<>(mRankedMovies.size());
         for (DocumentSnapshot doc : mRankedMovies) {
-            MovieListItem item = doc.toObject(MovieListItem.class);
-            if (item != null && item.getRankIndex() >= newIndex) {
-                batch.update(doc.getReference(), "rankIndex", item.getRankIndex() + 1);
+            Double key = doc.getDouble("rankIndex");
+            keys.add(key != null ? key : 0);
+        }
+
+        // Rebalancing a long list can exceed a single batch
+        ChunkedBatchWriter writer = new ChunkedBatchWriter(mFirestore, mJournalRef);
+        int total = mRankedMovies.size() + 1;
+        double newKey = RankKeys.keyForInsert(keys, newIndex);
+
+        if (Double.isNaN(newKey)) {
+            // No room between the neighbours: respace the whole list
+            for (int i = 0; i < mRankedMovies.size(); i++) {
+                int position = i >= newIndex ? i + 1 : i;
+                writer.update(mRankedMovies.get(i),
+                        "rankIndex", RankKeys.rebalancedKey(position),
+                        "rankNorm", MovieListItem.normalizeRank(position, total));
             }
+            newKey = RankKeys.rebalancedKey(newIndex);
         }
+        // Otherwise only the new movie is written; the server catches up the others' rankNorm
 
-        // 2. Update the new movie
-        batch.update(mNewMovieRef, 
+        writer.update(mNewMovieSnapshot,
                 "ranked", true,
-                "rankIndex", newIndex);
+                "rankIndex", newKey,
+                "rankNorm", MovieListItem.normalizeRank(newIndex, total));
 
-        // 3. Commit
-        batch.commit().addOnSuccessListener(aVoid -> {
+        writer.commit().addOnSuccessListener(aVoid -> {
             Toast.makeText(this, "Ranking saved!", Toast.LENGTH_SHORT).show();
             finish();
         }).addOnFailureListener(e -> {
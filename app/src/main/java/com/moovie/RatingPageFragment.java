@@ -20,7 +20,9 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.moovie.adapter.MovieListAdapter;
 import com.moovie.adapter.RankedMovieAdapter;
+import com.moovie.data.RankedListRepository;
 import com.moovie.model.MovieListItem;
+import com.moovie.util.ChunkedBatchWriter;
 import com.moovie.util.FirebaseUtil;
 
 /**
@@ -35,7 +37,6 @@ public class RatingPageFragment extends Fragment {
     private RankedMovieAdapter mRankedAdapter;
     private FirebaseFirestore mFirestore;
     private Query mUnratedQuery;
-    private Query mRankedQuery;
 
     private TabLayout mTabLayout;
     private boolean isShowingUnrated = true;
@@ -53,6 +54,11 @@ public class RatingPageFragment extends Fragment {
         mFirestore = FirebaseUtil.getFirestore();
         userId = FirebaseUtil.getAuth().getCurrentUser().getUid();
 
+        // Finish a reorder of the ranked list that was interrupted last time
+        ChunkedBatchWriter.resume(mFirestore,
+                ChunkedBatchWriter.journal(mFirestore, userId, "rankOrder"), null)
+                .addOnFailureListener(e -> Log.w(TAG, "Could not resume interrupted reorder", e));
+
         mRecyclerView = root.findViewById(R.id.recycler_user_ratings);
         mTabLayout = root.findViewById(R.id.tabLayout);
 
@@ -87,12 +93,6 @@ public class RatingPageFragment extends Fragment {
                 .document(userId)
                 .collection("watched")
                 .whereEqualTo("ranked", false);
-
-        mRankedQuery = mFirestore.collection("users")
-                .document(userId)
-                .collection("watched")
-                .whereEqualTo("ranked", true)
-                .orderBy("rankIndex", Query.Direction.ASCENDING);
     }
 
     private void initAdapters() {
@@ -106,7 +106,7 @@ public class RatingPageFragment extends Fragment {
         };
 
         // Ranked
-        mRankedAdapter = new RankedMovieAdapter(mRankedQuery, this::onRankedMovieSelected) {
+        mRankedAdapter = new RankedMovieAdapter(RankedListRepository.getInstance(), this::onRankedMovieSelected) {
             @Override protected void onDataChanged() {
                 if (!isShowingUnrated && getItemCount() == 0) {
                     Log.d(TAG, "No ranked movies found.");
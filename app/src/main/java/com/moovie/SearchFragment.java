@@ -19,8 +19,10 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.moovie.adapter.ApiMovieAdapter;
+import com.moovie.data.LocalMovieIndex;
+import com.moovie.data.MovieIdResolver;
+import com.moovie.data.MovieSearchEngine;
 import com.moovie.model.Movie;
-import com.moovie.model.TMDBResponse;
 import com.moovie.util.TMDBApiClient;
 import com.moovie.util.ApiService;
 import com.moovie.util.FirebaseUtil;
@@ -28,11 +30,8 @@ import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.List;
 
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
-
-public class SearchFragment extends Fragment implements ApiMovieAdapter.OnMovieSelectedListener {
+public class SearchFragment extends Fragment
+        implements ApiMovieAdapter.OnMovieSelectedListener, MovieSearchEngine.Listener {
 
     private static final String TAG = "SearchFragment";
     private static final String API_KEY = BuildConfig.TMDB_API_KEY_RA;
@@ -43,6 +42,9 @@ public class SearchFragment extends Fragment implements ApiMovieAdapter.OnMovieS
     private ApiMovieAdapter apiMovieAdapter;
     private ApiService apiService;
     private FirebaseFirestore mFirestore;
+    private MovieIdResolver mMovieIds;
+    private MovieSearchEngine mSearchEngine;
+    private LocalMovieIndex mLocalIndex;
 
     /**
      * Called to have the fragment instantiate its user interface view.
@@ -78,68 +80,68 @@ public class SearchFragment extends Fragment implements ApiMovieAdapter.OnMovieS
 
         // Initialize Firestore
         mFirestore = FirebaseUtil.getFirestore();
+        mMovieIds = MovieIdResolver.getInstance(requireContext());
 
         apiService = TMDBApiClient.getClient().create(ApiService.class);
 
+        mLocalIndex = LocalMovieIndex.getInstance();
+        mLocalIndex.subscribe();
+        mSearchEngine = new MovieSearchEngine(apiService, "Bearer " + API_KEY, mLocalIndex, this);
+
         // Listen for text changes in the search box
         searchInput.addTextChangedListener(new TextWatcher() {
-            private long lastEditTime = 0;
-            private final long delay = 500; // ms delay to avoid firing too often
-
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                lastEditTime = System.currentTimeMillis();
-                searchInput.removeCallbacks(runSearch);
-                searchInput.postDelayed(runSearch, delay);
+                mSearchEngine.onQueryChanged(s.toString());
             }
 
             @Override
             public void afterTextChanged(Editable s) {}
-
-            private final Runnable runSearch = () -> {
-                if (System.currentTimeMillis() - lastEditTime >= delay) {
-                    String query = searchInput.getText().toString().trim();
-                    if (!query.isEmpty()) {
-                        searchMovies(query);
-                    } else {
-                        apiMovieAdapter.clearMovies();
-                    }
-                }
-            };
         });
 
         return view;
     }
 
-    private void searchMovies(String query) {
-        Call<TMDBResponse> call = apiService.searchMovies(
-                "Bearer " + API_KEY,
-                query);
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // Drop the pending request so its response never reaches a dead view
+        mSearchEngine.release();
+        mLocalIndex.release();
+    }
 
-        call.enqueue(new Callback<TMDBResponse>() {
-            @Override
-            public void onResponse(Call<TMDBResponse> call, Response<TMDBResponse> response) {
-                Log.d(TAG, response.raw().toString());
-                if (response.isSuccessful() && response.body() != null) {
-                    List<Movie> movies = response.body().getResults();
-                    if (movies.isEmpty()) {
-                        Toast.makeText(getContext(), "No movies found", Toast.LENGTH_SHORT).show();
-                    } else {
-                        apiMovieAdapter.setMovies(movies);
-                    }
-                } else {
-                    Toast.makeText(getContext(), "Error fetching movies", Toast.LENGTH_SHORT).show();
-                }
-            }
+    /**
+     * Called with search results for the current query.
+     *
+     * @param query   The normalized query.
+     * @param movies  The matching movies.
+     * @param isFinal false while the results are a local preview.
+     */
+    @Override
+    public void onResults(String query, List<Movie> movies, boolean isFinal) {
+        if (!movies.isEmpty()) {
+            apiMovieAdapter.setMovies(movies);
+            return;
+        }
+        // An empty preview still replaces the previous query's rows while TMDB answers
+        apiMovieAdapter.clearMovies();
+        if (isFinal && !query.isEmpty()) {
+            Toast.makeText(getContext(), "No movies found", Toast.LENGTH_SHORT).show();
+        }
+    }
 
-            @Override
-            public void onFailure(Call<TMDBResponse> call, Throwable t) {
-                Toast.makeText(getContext(), "Error: " + t.getMessage(), Toast.LENGTH_SHORT).show();
-            }
-        });
+    /**
+     * Called when the search request for the current query failed.
+     *
+     * @param query The normalized query.
+     * @param t     The cause.
+     */
+    @Override
+    public void onError(String query, Throwable t) {
+        Toast.makeText(getContext(), "Error: " + t.getMessage(), Toast.LENGTH_SHORT).show();
     }
 
     /**
@@ -149,6 +151,12 @@ public class SearchFragment extends Fragment implements ApiMovieAdapter.OnMovieS
      */
     @Override
     public void onMovieSelected(Movie movie) {
+        // Movies in the user's lists already have a document, which also works offline
+        String docId = mLocalIndex.getDocId(movie.getTmdbId());
+        if (docId != null) {
+            openMovieDetail(docId);
+            return;
+        }
         // Save movie to Firebase and navigate to detail activity
         saveMovieToFirebase(movie);
     }
@@ -160,30 +168,15 @@ public class SearchFragment extends Fragment implements ApiMovieAdapter.OnMovieS
             movie.setAvgRating(0.0);
         }
 
-        // Check if movie already exists by TMDB ID
-        mFirestore.collection("movies")
-                .whereEqualTo("tmdbId", movie.getTmdbId())
-                .limit(1)
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful() && task.getResult().size() > 0) {
-                        // Movie already exists, open it
-                        String movieId = task.getResult().getDocuments().get(0).getId();
-                        openMovieDetail(movieId);
-                    } else {
-                        // New movie, add it to Firebase
-                        mFirestore.collection("movies")
-                                .add(movie)
-                                .addOnSuccessListener(documentReference -> {
-                                    String movieId = documentReference.getId();
-                                    openMovieDetail(movieId);
-                                    Log.d(TAG, "Movie saved with ID: " + movieId);
-                                })
-                                .addOnFailureListener(e -> {
-                                    Log.e(TAG, "Error saving movie", e);
-                                    Toast.makeText(getContext(), "Error adding movie", Toast.LENGTH_SHORT).show();
-                                });
-                    }
+        // Resolve the movie's document, adding it to Firebase if it is new
+        mMovieIds.resolve(movie)
+                .addOnSuccessListener(movieId -> {
+                    openMovieDetail(movieId);
+                    Log.d(TAG, "Movie resolved to ID: " + movieId);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error saving movie", e);
+                    Toast.makeText(getContext(), "Error adding movie", Toast.LENGTH_SHORT).show();
                 });
     }
 
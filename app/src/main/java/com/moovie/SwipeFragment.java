@@ -17,21 +17,16 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.firestore.DocumentReference;
 import com.moovie.adapter.ApiMovieAdapter;
+import com.moovie.data.MovieIdResolver;
+import com.moovie.data.SwipeDeck;
 import com.moovie.model.Movie;
 import com.moovie.model.MovieListItem;
-import com.moovie.model.TMDBResponse;
 import com.moovie.util.ApiService;
 import com.moovie.util.FirebaseUtil;
 import com.moovie.util.TMDBApiClient;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.Collections;
-import java.util.List;
-import java.util.Random;
-
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
 
 /**
  * Fragment for discovering movies with swipe actions (like/dislike).
@@ -47,7 +42,8 @@ public class SwipeFragment extends Fragment implements ApiMovieAdapter.OnMovieSe
     private ApiService apiService;
     private FirebaseFirestore firestore;
 
-    private final Random random = new Random();
+    private SwipeDeck deck;
+    private MovieIdResolver movieIds;
 
     /**
      * Default constructor for SwipeFragment.
@@ -80,45 +76,37 @@ public class SwipeFragment extends Fragment implements ApiMovieAdapter.OnMovieSe
 
         apiService = TMDBApiClient.getClient().create(ApiService.class);
         firestore = FirebaseUtil.getFirestore();
+        movieIds = MovieIdResolver.getInstance(requireContext());
+
+        deck = new SwipeDeck(requireContext(), apiService, "Bearer " + API_KEY);
+        deck.start(firestore, FirebaseUtil.getAuth().getUid());
 
         attachSwipeListener();
-        loadRandomMovie();
+        showNextMovie();
 
         return view;
     }
 
-    // Load 1 random movie using TMDB Discover API
-    private void loadRandomMovie() {
-        int page = random.nextInt(50) + 1; // Random page 1–50
-
-        Call<TMDBResponse> call = apiService.discoverMovies(
-                "Bearer " + API_KEY,
-                page
-        );
+    /**
+     * Called when the view previously created by onCreateView has been detached from the fragment.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        deck.release();
+    }
 
-        call.enqueue(new Callback<TMDBResponse>() {
+    // Show the next movie from the prefetched deck
+    private void showNextMovie() {
+        deck.next(new SwipeDeck.DeckListener() {
             @Override
-            public void onResponse(@NonNull Call<TMDBResponse> call,
-                                   @NonNull Response<TMDBResponse> response) {
-
-                if (!response.isSuccessful() || response.body() == null) {
-                    Toast.makeText(getContext(), "Error fetching movie", Toast.LENGTH_SHORT).show();
-                    return;
-                }
-
-                List<Movie> movies = response.body().getResults();
-                if (movies == null || movies.isEmpty()) {
-                    loadRandomMovie();
-                    return;
-                }
-
-                // Shuffle and take the first one
-                Collections.shuffle(movies);
-                adapter.setMovies(Collections.singletonList(movies.get(0)));
+            public void onMovie(Movie movie) {
+                adapter.setMovies(Collections.singletonList(movie));
             }
 
             @Override
-            public void onFailure(@NonNull Call<TMDBResponse> call, @NonNull Throwable t) {
+            public void onError(Throwable t) {
+                Log.e(TAG, "Could not load movies", t);
                 Toast.makeText(getContext(), "API Error", Toast.LENGTH_SHORT).show();
             }
         });
@@ -142,34 +130,14 @@ public class SwipeFragment extends Fragment implements ApiMovieAdapter.OnMovieSe
 
                 if (direction == ItemTouchHelper.RIGHT) {
 
+                    // Don't offer it again before the watched listener catches up
+                    deck.exclude(current.getTmdbId());
+
                     String uid = FirebaseUtil.getAuth().getUid();
 
                     // First: make sure the movie exists in /movies (just like toggleWatched)
-                    firestore.collection("movies")
-                            .whereEqualTo("tmdbId", current.getTmdbId())
-                            .limit(1)
-                            .get()
-                            .addOnSuccessListener(task -> {
-
-                                // Will contain Firestore doc ID for the movie
-                                final String movieDocId;
-
-                                if (task.getDocuments().size() > 0) {
-
-                                    // Movie already exists
-                                    movieDocId = task.getDocuments().get(0).getId();
-
-                                } else {
-
-                                    // Movie does not exist — create it
-                                    movieDocId = firestore.collection("movies")
-                                            .document()
-                                            .getId();
-
-                                    firestore.collection("movies")
-                                            .document(movieDocId)
-                                            .set(current);
-                                }
+                    movieIds.resolve(current)
+                            .addOnSuccessListener(movieDocId -> {
 
                                 // Now reference watched entry just like toggleWatched:
                                 DocumentReference watchedRef = firestore.collection("users")
@@ -189,8 +157,8 @@ public class SwipeFragment extends Fragment implements ApiMovieAdapter.OnMovieSe
                             });
                 }
 
-                // Always load the next movie
-                loadRandomMovie();
+                // Always show the next movie
+                showNextMovie();
             }
 
 
@@ -214,25 +182,11 @@ public class SwipeFragment extends Fragment implements ApiMovieAdapter.OnMovieSe
             movie.setAvgRating(0.0);
         }
 
-        firestore.collection("movies")
-                .whereEqualTo("tmdbId", movie.getTmdbId())
-                .limit(1)
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful() && task.getResult().size() > 0) {
-
-                        String movieId = task.getResult().getDocuments().get(0).getId();
-                        openMovieDetail(movieId);
-
-                    } else {
-                        firestore.collection("movies")
-                                .add(movie)
-                                .addOnSuccessListener(doc -> openMovieDetail(doc.getId()))
-                                .addOnFailureListener(e ->
-                                        Toast.makeText(getContext(), "Error saving movie", Toast.LENGTH_SHORT).show()
-                                );
-                    }
-                });
+        movieIds.resolve(movie)
+                .addOnSuccessListener(this::openMovieDetail)
+                .addOnFailureListener(e ->
+                        Toast.makeText(getContext(), "Error saving movie", Toast.LENGTH_SHORT).show()
+                );
     }
 
     private void openMovieDetail(String movieId) {
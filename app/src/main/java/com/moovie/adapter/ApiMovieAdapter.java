@@ -13,6 +13,7 @@ import com.bumptech.glide.Glide;
 import com.moovie.R;
 import com.moovie.model.Movie;
 import com.moovie.util.ImageUtil;
+import com.moovie.util.TmdbPoster;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -60,10 +61,10 @@ public class ApiMovieAdapter extends RecyclerView.Adapter<ApiMovieAdapter.MovieV
         holder.year.setText(String.valueOf(movie.getReleaseYear()));
 
         // Load poster image using ImageUtil
-        String imageUrl = ImageUtil.buildImageUrl(movie.getPosterUrl());
-        if (imageUrl != null) {
+        TmdbPoster poster = ImageUtil.poster(movie.getPosterUrl());
+        if (poster != null) {
             Glide.with(holder.itemView.getContext())
-                    .load(imageUrl)
+                    .load(poster)
                     .placeholder(R.drawable.ic_movie_placeholder)
                     .error(R.drawable.ic_movie_placeholder)
                     .into(holder.poster);
@@ -15,8 +15,11 @@
  */
  package com.moovie.adapter;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.firestore.DocumentChange;
@@ -26,16 +29,29 @@ import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.moovie.util.BoundedExecutor;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * RecyclerView adapter for displaying the results of a Firestore {@link Query}.
  *
- * Note that this class forgoes some efficiency to gain simplicity. For example, the result of
- * {@link DocumentSnapshot#toObject(Class)} is not cached so the same object may be deserialized
- * many times as the user scrolls.
- * 
+ * The result of {@link DocumentSnapshot#toObject(Class)} is cached per position by
+ * {@link #getObject(int, Class)}, so each document version is deserialized once however often it
+ * is bound while the user scrolls. Document changes drop the cached object along with the
+ * snapshot.
+ *
+ * With {@link #setAsyncDiffing(boolean)} the adapter instead diffs each snapshot against the
+ * rows on screen on a background thread, in the style of AsyncListDiffer, and dispatches the
+ * result as coalesced range updates. Rows whose data did not change keep their snapshot and
+ * decoded object. A new query keeps the old rows on screen until its first snapshot arrives, so
+ * swapping filters neither blanks nor fully rebinds the list.
+ *
  * See the adapter classes in FirebaseUI (https://github.com/firebase/FirebaseUI-Android/tree/master/firestore) for a
  * more efficient implementation of a Firestore RecyclerView Adapter.
  */
@@ -44,10 +60,20 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
 
     private static final String TAG = "Firestore Adapter";
 
+    // Shared by all adapters; a newer snapshot for the same adapter cancels the pending diff
+    private static final BoundedExecutor DIFF_EXECUTOR = new BoundedExecutor("diff-worker", 1, 8);
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
     private Query mQuery;
     private ListenerRegistration mRegistration;
 
     private ArrayList<DocumentSnapshot> mSnapshots = new ArrayList<>();
+    // Decoded model objects, parallel to mSnapshots; null until first requested
+    private ArrayList<Object> mObjects = new ArrayList<>();
+
+    private boolean mAsyncDiffing;
+    // Bumped for every snapshot and query change; stale diff results are dropped
+    private int mDiffGeneration;
 
     /**
      * Constructor for FirestoreAdapter.
@@ -67,7 +93,17 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
     }
 
     /**
-     * Stops listening for Firestore updates.
+     * Switches between applying document changes one by one on the main thread, the default, and
+     * diffing whole snapshots on a background thread. Call before listening starts.
+     * @param enabled true to diff in the background and keep rows across query changes.
+     */
+    public void setAsyncDiffing(boolean enabled) {
+        mAsyncDiffing = enabled;
+    }
+
+    /**
+     * Stops listening for Firestore updates. Unless diffing in the background, the rows are
+     * cleared as well.
      */
     public void stopListening() {
         if (mRegistration != null) {
@@ -75,7 +111,13 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
             mRegistration = null;
         }
 
+        if (mAsyncDiffing) {
+            // Keep the rows; the next snapshot is diffed against them
+            mDiffGeneration++;
+            return;
+        }
         mSnapshots.clear();
+        mObjects.clear();
         notifyDataSetChanged();
     }
 
@@ -87,8 +129,16 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
         // Stop listening
         stopListening();
 
+        if (mAsyncDiffing) {
+            // Old rows stay until the new query's first snapshot replaces them
+            mQuery = query;
+            startListening();
+            return;
+        }
+
         // Clear existing data
         mSnapshots.clear();
+        mObjects.clear();
         notifyDataSetChanged();
 
         // Listen to new query
@@ -114,6 +164,24 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
         return mSnapshots.get(index);
     }
 
+    /**
+     * Gets the model object at the specified index, deserializing the snapshot only the first
+     * time it is requested.
+     * @param index The index of the snapshot.
+     * @param valueType The model class.
+     * @param <T> The model type.
+     * @return The decoded object, or null if the document has no data.
+     */
+    protected <T> T getObject(int index, Class<T> valueType) {
+        Object cached = mObjects.get(index);
+        if (valueType.isInstance(cached)) {
+            return valueType.cast(cached);
+        }
+        T decoded = mSnapshots.get(index).toObject(valueType);
+        mObjects.set(index, decoded);
+        return decoded;
+    }
+
     /**
      * Called when an error occurs while listening to the query.
      * @param e The exception that occurred.
@@ -141,6 +209,10 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
         if (e != null) {
             Log.w(TAG, "onEvent:error", e); return;
         }
+        if (mAsyncDiffing) {
+            submitDiff(documentSnapshots.getDocuments());
+            return;
+        }
         // Dispatch the event
         for (DocumentChange change : documentSnapshots.getDocumentChanges()) {
             // Snapshot of the changed document
@@ -166,6 +238,7 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
      */
     protected void onDocumentAdded(DocumentChange change) {
         mSnapshots.add(change.getNewIndex(), change.getDocument());
+        mObjects.add(change.getNewIndex(), null);
         notifyItemInserted(change.getNewIndex());
     }
 
@@ -177,11 +250,14 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
         if (change.getOldIndex() == change.getNewIndex()) {
             // Item changed but remained in same position
             mSnapshots.set(change.getOldIndex(), change.getDocument());
+            mObjects.set(change.getOldIndex(), null);
             notifyItemChanged(change.getOldIndex());
         } else {
             // Item changed and changed position
             mSnapshots.remove(change.getOldIndex());
             mSnapshots.add(change.getNewIndex(), change.getDocument());
+            mObjects.remove(change.getOldIndex());
+            mObjects.add(change.getNewIndex(), null);
             notifyItemMoved(change.getOldIndex(), change.getNewIndex());
         }
     }
@@ -192,7 +268,72 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
      */
     protected void onDocumentRemoved(DocumentChange change) {
         mSnapshots.remove(change.getOldIndex());
+        mObjects.remove(change.getOldIndex());
         notifyItemRemoved(change.getOldIndex());
     }
 
+    // Diffs the new results against the current rows off the main thread, then swaps them in
+    private void submitDiff(List<DocumentSnapshot> incoming) {
+        final int generation = ++mDiffGeneration;
+        final List<DocumentSnapshot> oldSnapshots = new ArrayList<>(mSnapshots);
+        final List<Object> oldObjects = new ArrayList<>(mObjects);
+
+        Runnable diff = () -> {
+            Map<String, Integer> oldIndex = new HashMap<>();
+            for (int i = 0; i < oldSnapshots.size(); i++) {
+                oldIndex.put(oldSnapshots.get(i).getId(), i);
+            }
+
+            // Unchanged documents keep their old snapshot and decoded object
+            ArrayList<DocumentSnapshot> snapshots = new ArrayList<>(incoming.size());
+            ArrayList<Object> objects = new ArrayList<>(incoming.size());
+            for (DocumentSnapshot doc : incoming) {
+                Integer i = oldIndex.get(doc.getId());
+                if (i != null && Objects.equals(oldSnapshots.get(i).getData(), doc.getData())) {
+                    snapshots.add(oldSnapshots.get(i));
+                    objects.add(oldObjects.get(i));
+                } else {
+                    snapshots.add(doc);
+                    objects.add(null);
+                }
+            }
+
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldSnapshots.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return snapshots.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return oldSnapshots.get(oldPosition).getId().equals(snapshots.get(newPosition).getId());
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    return oldSnapshots.get(oldPosition) == snapshots.get(newPosition);
+                }
+            });
+
+            MAIN.post(() -> {
+                if (generation != mDiffGeneration) return;
+                mSnapshots = snapshots;
+                mObjects = objects;
+                result.dispatchUpdatesTo(this);
+                onDataChanged();
+            });
+        };
+
+        try {
+            DIFF_EXECUTOR.submit(this, diff);
+        } catch (RejectedExecutionException ex) {
+            Log.w(TAG, "Diff queue full, diffing on the main thread");
+            diff.run();
+        }
+    }
 }
@@ -14,6 +14,7 @@ import com.bumptech.glide.Glide;
 import com.moovie.R;
 import com.moovie.model.Movie;
 import com.moovie.util.ImageUtil;
+import com.moovie.util.TmdbPoster;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.Query;
 
@@ -67,7 +68,8 @@ public class MovieAdapter extends FirestoreAdapter<MovieAdapter.ViewHolder> {
      */
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.bind(getSnapshot(position), mListener);
+        Movie movie = getObject(position, Movie.class);
+        if (movie != null) holder.bind(getSnapshot(position), movie, mListener);
     }
 
     /**
@@ -93,16 +95,16 @@ public class MovieAdapter extends FirestoreAdapter<MovieAdapter.ViewHolder> {
         }
 
         public void bind(final DocumentSnapshot snapshot,
+                         final Movie movie,
                          final OnMovieSelectedListener listener) {
 
-            Movie movie = snapshot.toObject(Movie.class);
             Resources resources = itemView.getResources();
 
             // Load image using ImageUtil
-            String imageUrl = ImageUtil.buildImageUrl(movie.getPosterUrl());
-            if (imageUrl != null) {
+            TmdbPoster poster = ImageUtil.poster(movie.getPosterUrl());
+            if (poster != null) {
                 Glide.with(imageView.getContext())
-                        .load(imageUrl)
+                        .load(poster)
                         .placeholder(R.drawable.ic_movie_placeholder)
                         .error(R.drawable.ic_movie_placeholder)
                         .into(imageView);
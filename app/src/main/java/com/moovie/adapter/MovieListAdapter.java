@@ -11,7 +11,9 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.moovie.R;
+import com.moovie.model.MovieListItem;
 import com.moovie.util.ImageUtil;
+import com.moovie.util.TmdbPoster;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.Query;
 
@@ -60,7 +62,8 @@ public class MovieListAdapter extends FirestoreAdapter<MovieListAdapter.ViewHold
      */
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.bind(getSnapshot(position), mListener);
+        MovieListItem item = getObject(position, MovieListItem.class);
+        if (item != null) holder.bind(getSnapshot(position), item, mListener);
     }
 
     /**
@@ -78,17 +81,15 @@ public class MovieListAdapter extends FirestoreAdapter<MovieListAdapter.ViewHold
         }
 
         public void bind(final DocumentSnapshot snapshot,
+                         final MovieListItem item,
                          final OnMovieSelectedListener listener) {
 
-            String title = snapshot.getString("title");
-            String posterUrl = snapshot.getString("posterUrl");
+            titleView.setText(item.getTitle());
 
-            titleView.setText(title);
-
-            String imageUrl = ImageUtil.buildImageUrl(posterUrl);
-            if (imageUrl != null) {
+            TmdbPoster poster = ImageUtil.poster(item.getPosterUrl());
+            if (poster != null) {
                 Glide.with(imageView.getContext())
-                        .load(imageUrl)
+                        .load(poster)
                         .placeholder(R.drawable.ic_movie_placeholder)
                         .error(R.drawable.ic_movie_placeholder)
                         .into(imageView);
@@ -12,19 +12,24 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QuerySnapshot;
-import com.google.firebase.firestore.WriteBatch;
+import com.google.firebase.firestore.FirebaseFirestore;
 import com.moovie.R;
+import com.moovie.data.RankedListRepository;
 import com.moovie.model.MovieListItem;
+import com.moovie.util.ChunkedBatchWriter;
 import com.moovie.util.FirebaseUtil;
 import com.moovie.util.ImageUtil;
+import com.moovie.util.RankKeys;
 
 import java.util.ArrayList;
 import java.util.List;
 
-public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.ViewHolder> {
+/**
+ * Adapter for the user's ranked list, fed by {@link RankedListRepository} instead of its own
+ * query, with drag-to-reorder.
+ */
+public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.ViewHolder>
+        implements RankedListRepository.Listener {
 
     private static final String TAG = "RankedMovieAdapter";
 
@@ -40,43 +45,54 @@ public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.View
     }
 
     private final OnMovieSelectedListener mListener;
+    private final RankedListRepository mRepository;
     private final List<DocumentSnapshot> items = new ArrayList<>();
     private boolean isDragging = false;
+    // The item picked up by the current drag; only its key changes when it is dropped
+    private DocumentSnapshot draggedItem;
 
     /**
      * Constructor for RankedMovieAdapter.
-     * @param query The Firestore query to listen to.
+     * @param repository The shared ranked list.
      * @param listener The listener for movie selection events.
      */
-    public RankedMovieAdapter(Query query, OnMovieSelectedListener listener) {
-        super(query);
+    public RankedMovieAdapter(RankedListRepository repository, OnMovieSelectedListener listener) {
+        super(null);
+        mRepository = repository;
         mListener = listener;
     }
 
     /**
-     * Called when the Firestore query returns a snapshot.
-     * @param snapshots The new query snapshot.
-     * @param e The exception that occurred, if any.
+     * Subscribes to the shared ranked list.
      */
     @Override
-    public void onEvent(QuerySnapshot snapshots, FirebaseFirestoreException e) {
-        // Handle errors
-        if (e != null) {
-            Log.w(TAG, "onEvent:error", e);
-            return;
-        }
+    public void startListening() {
+        mRepository.addListener(this);
+    }
+
+    /**
+     * Unsubscribes from the shared ranked list, keeping the rows shown until the next update.
+     */
+    @Override
+    public void stopListening() {
+        mRepository.removeListener(this);
+    }
 
+    /**
+     * Called when the shared ranked list changes.
+     * @param documents The ranked documents, best first.
+     */
+    @Override
+    public void onRankedListChanged(List<DocumentSnapshot> documents) {
         // Block updates during drag
         if (isDragging) {
             Log.d(TAG, "Blocking Firestore update during drag");
             return;
         }
 
-        // DO NOT call super.onEvent() - we want to replace the entire list, not process changes incrementally
+        // Replace the entire list rather than process changes incrementally
         items.clear();
-        if (snapshots != null) {
-            items.addAll(snapshots.getDocuments());
-        }
+        items.addAll(documents);
         notifyDataSetChanged();
         onDataChanged();
 
@@ -88,6 +104,7 @@ public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.View
      */
     public void startDrag() {
         isDragging = true;
+        draggedItem = null;
         Log.d(TAG, "Drag started - blocking updates");
     }
 
@@ -103,28 +120,61 @@ public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.View
         }
 
         DocumentSnapshot moved = items.remove(fromPosition);
+        if (draggedItem == null) draggedItem = moved;
         items.add(toPosition, moved);
         notifyItemMoved(fromPosition, toPosition);
     }
 
     /**
-     * Ends a drag operation, updating the order in Firestore.
+     * Ends a drag operation, giving the dropped item a key between its new neighbours in Firestore.
      */
     public void endDrag() {
-        WriteBatch batch = FirebaseUtil.getFirestore().batch();
+        int newIndex = draggedItem != null ? items.indexOf(draggedItem) : -1;
+        if (newIndex < 0) {
+            isDragging = false;
+            return;
+        }
 
-        for (int i = 0; i < items.size(); i++) {
+        List<Double> keys = new ArrayList<>(items.size() - 1);
+        for (DocumentSnapshot snapshot : items) {
+            if (snapshot == draggedItem) continue;
+            Double key = snapshot.getDouble("rankIndex");
+            keys.add(key != null ? key : 0);
+        }
+        double newKey = RankKeys.keyForInsert(keys, newIndex);
+
+        // Rebalancing a long list can exceed a single batch
+        FirebaseFirestore firestore = FirebaseUtil.getFirestore();
+        String uid = FirebaseUtil.getAuth().getCurrentUser().getUid();
+        ChunkedBatchWriter writer = new ChunkedBatchWriter(firestore,
+                ChunkedBatchWriter.journal(firestore, uid, "rankOrder"));
+        int total = items.size();
+        for (int i = 0; i < total; i++) {
             DocumentSnapshot snapshot = items.get(i);
-            batch.update(snapshot.getReference(), "rankIndex", i);
+            double rankNorm = MovieListItem.normalizeRank(i, total);
+            if (Double.isNaN(newKey)) {
+                // No room between the neighbours: respace the whole list
+                writer.update(snapshot,
+                        "rankIndex", RankKeys.rebalancedKey(i),
+                        "rankNorm", rankNorm);
+            } else if (snapshot == draggedItem) {
+                // The server catches up the other items' rankNorm
+                writer.update(snapshot,
+                        "rankIndex", newKey,
+                        "rankNorm", rankNorm);
+            }
         }
+        draggedItem = null;
 
-        batch.commit()
+        writer.commit()
                 .addOnSuccessListener(aVoid -> {
                     Log.d(TAG, "Batch update successful");
                     // Wait for Firestore to settle before accepting updates
                     new android.os.Handler().postDelayed(() -> {
                         isDragging = false;
                         Log.d(TAG, "Drag ended - accepting updates");
+                        // Catch up on anything blocked during the drag
+                        if (mRepository.isLoaded()) onRankedListChanged(mRepository.getDocuments());
                     }, 800);
                 })
                 .addOnFailureListener(ex -> {
@@ -163,7 +213,9 @@ public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.View
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         if (position >= 0 && position < items.size()) {
-            holder.bind(items.get(position), mListener, position);
+            DocumentSnapshot snapshot = items.get(position);
+            MovieListItem movie = mRepository.getItem(snapshot);
+            if (movie != null) holder.bind(snapshot, movie, mListener, position);
         }
     }
 
@@ -183,15 +235,13 @@ public class RankedMovieAdapter extends FirestoreAdapter<RankedMovieAdapter.View
             titleView = itemView.findViewById(R.id.text_title);
         }
 
-        void bind(DocumentSnapshot snapshot, OnMovieSelectedListener listener, int position) {
-            MovieListItem movie = snapshot.toObject(MovieListItem.class);
-            if (movie == null) return;
-
+        void bind(DocumentSnapshot snapshot, MovieListItem movie,
+                  OnMovieSelectedListener listener, int position) {
             rankIndexView.setText(String.valueOf(position + 1));
             titleView.setText(movie.getTitle());
 
             Glide.with(imageView.getContext())
-                    .load(ImageUtil.buildImageUrl(movie.getPosterUrl()))
+                    .load(ImageUtil.poster(movie.getPosterUrl()))
                     .placeholder(R.drawable.ic_movie_placeholder)
                     .into(imageView);
 
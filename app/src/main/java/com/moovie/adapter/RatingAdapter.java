@@ -62,7 +62,8 @@ public class RatingAdapter extends FirestoreAdapter<RatingAdapter.ViewHolder> {
      */
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.bind(getSnapshot(position).toObject(Rating.class));
+        Rating rating = getObject(position, Rating.class);
+        if (rating != null) holder.bind(rating);
     }
 
     /**
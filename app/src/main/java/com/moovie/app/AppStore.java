@@ -5,9 +5,10 @@ import android.util.Log;
 
 import com.moovie.BuildConfig;
 import com.moovie.data.WatchmodeRepository;
-import com.moovie.model.watchmode.Platform;
+import com.moovie.util.BoundedExecutor;
+import com.moovie.util.WMApiClient;
 
-import java.util.List;
+import java.io.File;
 
 /**
 
@@ -17,9 +18,13 @@ import java.util.List;
  */
 public final class AppStore {
 
+    // Watchmode worker pool: lookups beyond the queue capacity are rejected instead of piling up
+    private static final int WM_POOL_SIZE = 3;
+    private static final int WM_QUEUE_CAPACITY = 32;
+    private static final String WM_STORE_FILE = "watchmode.bin";
+
+    private static WMApiClient wmClient;
     private static WatchmodeRepository wmRepo;
-    private static boolean logosLoadingInProgress = false;
-    private static boolean logosReady = false;
 
     private AppStore() {
         // prevent instantiation
@@ -40,29 +45,18 @@ public final class AppStore {
             return;
         }
 
-        wmRepo = new WatchmodeRepository(BuildConfig.WM_API_KEY);
-        logosLoadingInProgress = true;
-
-        // Run the network preload in a background thread
-        new Thread(() -> {
-            try {
-                wmRepo.fetchSourceLogos(new WatchmodeRepository.PlatformsCallback() {
-                    @Override public void onSuccess(String titleId, List<Platform> platforms) {
-                        // post to main thread if UI needs to react
-                        logosReady = true;
-                        logosLoadingInProgress = false;
-                    }
-                    @Override public void onError(Exception e) {
-                        logosReady = false;
-                        logosLoadingInProgress = false;
-                    }
-                });
-            } catch (Exception e) {
-                logosReady = false;
-                logosLoadingInProgress = false;
-                Log.e("AppStore", "Logo preload failed", e);
-            }
-        }).start();
+        // Platforms and logos persist in the cache dir so a cold start can skip the network
+        File store = new File(ctx.getApplicationContext().getCacheDir(), WM_STORE_FILE);
+        // One client so every Watchmode caller draws from the same rate limit
+        wmClient = new WMApiClient(BuildConfig.WM_API_KEY);
+        wmRepo = new WatchmodeRepository(wmClient,
+                new BoundedExecutor("wm-worker", WM_POOL_SIZE, WM_QUEUE_CAPACITY), store);
+
+        // Start the shared logo catalog load; platform lookups wait on the same load
+        wmRepo.getSourceLogos().exceptionally(e -> {
+            Log.e("AppStore", "Logo preload failed", e);
+            return null;
+        });
     }
 
     /**
@@ -77,4 +71,17 @@ public final class AppStore {
         }
         return wmRepo;
     }
+
+    /**
+     Accessor for the shared, rate-limited Watchmode client.
+     Will lazily initialize if not already created.
+     * @param ctx The context the WM client is in.
+     * @return wmClient The client.
+     */
+    public static synchronized WMApiClient getWatchmodeClient(Context ctx) {
+        if (wmClient == null) {
+            init(ctx);
+        }
+        return wmClient;
+    }
 }
@@ -1,17 +1,24 @@
 package com.moovie.app;
 
-import android.app.Application;
+import androidx.multidex.MultiDexApplication;
+
+import com.moovie.data.CatalogMetadataRepository;
+import com.moovie.util.HttpClients;
 
 /**
  Manages the AppStore instance.
  */
-public class MApp extends Application {
+public class MApp extends MultiDexApplication {
     /**
      Create the application with an AppStore instance.
      */
     @Override public void onCreate() {
         super.onCreate();
-        // Initialize AppStore and preload logos
+        // Build the shared HTTP stack first so every API client gets the response cache
+        HttpClients.init(this);
+        // Initialize AppStore, load the Watchmode disk store and preload logos
         AppStore.init(this);
+        // Apply the saved genre list and refresh catalog metadata that has gone stale
+        CatalogMetadataRepository.getInstance(this).refreshIfStale(null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+package com.moovie.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.moovie.BuildConfig;
+import com.moovie.model.GenreListResponse;
+import com.moovie.model.TMDBResponse;
+import com.moovie.network.TMDBService;
+import com.moovie.util.GenreUtil;
+import com.moovie.util.TMDBApiClient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Slow-moving TMDB aggregates, kept on disk so screens can show them without waiting on TMDB.
+ *
+ * Holds the size of the TMDB catalog and its genre list. Values are served from
+ * SharedPreferences at once, however old; a value past its TTL is refreshed in the background
+ * and callers waiting on the refresh are told when it lands. A failed refresh keeps the old value
+ * and is retried on the next call. Loading the genre list also replaces GenreUtil's built-in
+ * names.
+ *
+ * Not thread-safe: use it from the main thread, where Retrofit delivers callbacks.
+ */
+public class CatalogMetadataRepository {
+
+    private static final String TAG = "CatalogMetadata";
+
+    private static final String PREFS_NAME = "catalog_metadata";
+    private static final String KEY_TOTAL_MOVIES = "total_movies";
+    private static final String KEY_TOTAL_MOVIES_AT = "total_movies_at";
+    private static final String KEY_GENRES = "genres";
+    private static final String KEY_GENRES_AT = "genres_at";
+
+    // The catalog grows by a fraction of a percent a week; genres almost never change
+    private static final long TOTAL_MOVIES_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long GENRES_TTL_MS = TimeUnit.DAYS.toMillis(30);
+
+    private static CatalogMetadataRepository sInstance;
+
+    private final SharedPreferences prefs;
+    private final TMDBService service;
+    private final String apiKey;
+
+    private final List<Runnable> waiting = new ArrayList<>();
+    private int inFlight;
+    private boolean changed;
+
+    /**
+     * Gets the shared repository, applying any saved genre list.
+     * @param ctx Any context.
+     * @return The repository.
+     */
+    public static synchronized CatalogMetadataRepository getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new CatalogMetadataRepository(ctx.getApplicationContext(),
+                    TMDBApiClient.getClient().create(TMDBService.class), BuildConfig.TMDB_API_KEY);
+        }
+        return sInstance;
+    }
+
+    CatalogMetadataRepository(Context ctx, TMDBService service, String apiKey) {
+        this.prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.service = service;
+        this.apiKey = apiKey;
+        Map<Integer, String> genres = decodeGenres(prefs.getString(KEY_GENRES, null));
+        if (!genres.isEmpty()) GenreUtil.setGenres(genres);
+    }
+
+    /**
+     * Gets the number of movies TMDB knows about, as last fetched.
+     * @return The count, or 0 if it has never been fetched.
+     */
+    public int getTotalMovies() {
+        return prefs.getInt(KEY_TOTAL_MOVIES, 0);
+    }
+
+    /**
+     * Fetches every value past its TTL in the background. Calls made while a refresh is running
+     * share it.
+     * @param onChanged Called on the main thread once the refresh finishes, only if a value
+     *                  changed; may be null.
+     */
+    public void refreshIfStale(@Nullable Runnable onChanged) {
+        long now = System.currentTimeMillis();
+        boolean totalStale = now - prefs.getLong(KEY_TOTAL_MOVIES_AT, 0) > TOTAL_MOVIES_TTL_MS;
+        boolean genresStale = now - prefs.getLong(KEY_GENRES_AT, 0) > GENRES_TTL_MS;
+        if (!totalStale && !genresStale && inFlight == 0) return;
+
+        if (onChanged != null) waiting.add(onChanged);
+        if (inFlight > 0) return;
+        if (totalStale) refreshTotalMovies();
+        if (genresStale) refreshGenres();
+    }
+
+    private void refreshTotalMovies() {
+        inFlight++;
+        service.getTotalMovies(apiKey).enqueue(new Callback<TMDBResponse>() {
+            @Override
+            public void onResponse(@NonNull Call<TMDBResponse> call,
+                                   @NonNull Response<TMDBResponse> response) {
+                TMDBResponse body = response.body();
+                if (response.isSuccessful() && body != null && body.getTotalResults() > 0) {
+                    changed |= body.getTotalResults() != getTotalMovies();
+                    prefs.edit()
+                            .putInt(KEY_TOTAL_MOVIES, body.getTotalResults())
+                            .putLong(KEY_TOTAL_MOVIES_AT, System.currentTimeMillis())
+                            .apply();
+                } else {
+                    Log.w(TAG, "Catalog size request failed: " + response.code());
+                }
+                finishRequest();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<TMDBResponse> call, @NonNull Throwable t) {
+                Log.w(TAG, "Catalog size request failed", t);
+                finishRequest();
+            }
+        });
+    }
+
+    private void refreshGenres() {
+        inFlight++;
+        service.getGenres(apiKey).enqueue(new Callback<GenreListResponse>() {
+            @Override
+            public void onResponse(@NonNull Call<GenreListResponse> call,
+                                   @NonNull Response<GenreListResponse> response) {
+                GenreListResponse body = response.body();
+                if (response.isSuccessful() && body != null && body.getGenres() != null
+                        && !body.getGenres().isEmpty()) {
+                    Map<Integer, String> genres = new HashMap<>();
+                    for (GenreListResponse.Genre genre : body.getGenres()) {
+                        if (genre.getName() != null) genres.put(genre.getId(), genre.getName());
+                    }
+                    String encoded = encodeGenres(genres);
+                    changed |= !encoded.equals(prefs.getString(KEY_GENRES, null));
+                    prefs.edit()
+                            .putString(KEY_GENRES, encoded)
+                            .putLong(KEY_GENRES_AT, System.currentTimeMillis())
+                            .apply();
+                    GenreUtil.setGenres(genres);
+                } else {
+                    Log.w(TAG, "Genre list request failed: " + response.code());
+                }
+                finishRequest();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<GenreListResponse> call, @NonNull Throwable t) {
+                Log.w(TAG, "Genre list request failed", t);
+                finishRequest();
+            }
+        });
+    }
+
+    private void finishRequest() {
+        if (--inFlight > 0) return;
+        List<Runnable> callbacks = new ArrayList<>(waiting);
+        waiting.clear();
+        boolean notify = changed;
+        changed = false;
+        if (!notify) return;
+        for (Runnable callback : callbacks) callback.run();
+    }
+
+    // One "id=name" pair per line
+    private static String encodeGenres(Map<Integer, String> genres) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, String> genre : genres.entrySet()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(genre.getKey()).append('=').append(genre.getValue().replace('\n', ' '));
+        }
+        return sb.toString();
+    }
+
+    private static Map<Integer, String> decodeGenres(String encoded) {
+        Map<Integer, String> genres = new HashMap<>();
+        if (encoded == null) return genres;
+        for (String line : encoded.split("\n")) {
+            int split = line.indexOf('=');
+            if (split <= 0) continue;
+            try {
+                genres.put(Integer.parseInt(line.substring(0, split)), line.substring(split + 1));
+            } catch (NumberFormatException ignore) {
+                // not a genre entry
+            }
+        }
+        return genres;
+    }
+}
@@ -0,0 +1,380 @@
+package com.moovie.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.moovie.model.Movie;
+import com.moovie.model.MovieListItem;
+import com.moovie.util.FirebaseUtil;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Search index over every movie in the signed-in user's watched and wantToWatch lists.
+ *
+ * Titles, genres and release years are split into words, and each word maps to the movies that
+ * contain it. Words are kept sorted, so a half-typed word finds its completions with a range
+ * lookup. Each word is also stored with one character deleted in each place, so a word one typo
+ * away is found by a few hash lookups instead of a scan. Snapshot listeners on both lists update
+ * the index one changed document at a time. Firestore serves those listeners from its local cache
+ * too, so the user's own movies can be searched offline.
+ *
+ * The listeners start with the first subscriber and stay attached for a short while after the
+ * last one leaves, so reopening search does not download both lists again. Once they stop, the
+ * index is emptied, since it would go stale.
+ *
+ * Not thread-safe: use it from the main thread, where Firestore delivers snapshots.
+ */
+public class LocalMovieIndex {
+
+    private static final String TAG = "LocalMovieIndex";
+
+    private static final String[] LISTS = {"watched", "wantToWatch"};
+
+    // Shorter words have too many neighbours one typo away to be useful
+    private static final int MIN_FUZZY_LENGTH = 4;
+
+    private static final int SCORE_EXACT = 3;
+    private static final int SCORE_PREFIX = 2;
+    private static final int SCORE_FUZZY = 1;
+
+    // How long the listeners stay attached without subscribers
+    private static final long LINGER_MS = 30_000;
+
+    private static LocalMovieIndex sInstance;
+
+    private final FirebaseFirestore firestore;
+    private final String uid;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable stopIfUnused = this::stopIfUnused;
+    private final List<ListenerRegistration> registrations = new ArrayList<>();
+    private int subscribers;
+
+    // Movie document id -> indexed movie
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<Integer, String> docIdsByTmdbId = new HashMap<>();
+    // Word -> ids of the movies containing it
+    private final TreeMap<String, Set<String>> words = new TreeMap<>();
+    // Word with one character deleted -> the words it came from
+    private final Map<String, Set<String>> deletions = new HashMap<>();
+
+    /**
+     * Gets the index for the signed-in user, replacing the previous user's one.
+     * @return The index; call {@link #subscribe()} to have it listen to the user's lists.
+     * @throws IllegalStateException If nobody is signed in.
+     */
+    public static synchronized LocalMovieIndex getInstance() {
+        FirebaseUser user = FirebaseUtil.getAuth().getCurrentUser();
+        if (user == null) {
+            // Don't keep listening to a signed-out user's lists
+            if (sInstance != null) sInstance.stop();
+            sInstance = null;
+            throw new IllegalStateException("The search index needs a signed-in user");
+        }
+        String uid = user.getUid();
+        if (sInstance == null || !sInstance.uid.equals(uid)) {
+            if (sInstance != null) sInstance.stop();
+            sInstance = new LocalMovieIndex(FirebaseUtil.getFirestore(), uid);
+        }
+        return sInstance;
+    }
+
+    LocalMovieIndex(FirebaseFirestore firestore, String uid) {
+        this.firestore = firestore;
+        this.uid = uid;
+    }
+
+    /**
+     * Starts keeping the index current, if it is not already.
+     */
+    public void subscribe() {
+        subscribers++;
+        start();
+    }
+
+    /**
+     * Lets the listeners stop once nobody else needs the index.
+     * Pairs with {@link #subscribe()}.
+     */
+    public void release() {
+        if (subscribers == 0) return;
+        subscribers--;
+        if (subscribers == 0) {
+            handler.removeCallbacks(stopIfUnused);
+            handler.postDelayed(stopIfUnused, LINGER_MS);
+        }
+    }
+
+    private void start() {
+        handler.removeCallbacks(stopIfUnused);
+        if (!registrations.isEmpty()) return;
+        for (int i = 0; i < LISTS.length; i++) {
+            final int list = i;
+            registrations.add(firestore.collection("users").document(uid).collection(LISTS[i])
+                    .addSnapshotListener((snapshot, e) -> {
+                        if (e != null) {
+                            Log.w(TAG, "Listener for " + LISTS[list] + " failed", e);
+                            // The listener is dead after an error; the next subscriber starts anew
+                            stop();
+                            return;
+                        }
+                        if (snapshot == null) return;
+                        for (DocumentChange change : snapshot.getDocumentChanges()) {
+                            DocumentSnapshot doc = change.getDocument();
+                            if (change.getType() == DocumentChange.Type.REMOVED) {
+                                remove(doc.getId(), list);
+                            } else {
+                                MovieListItem item = doc.toObject(MovieListItem.class);
+                                if (item != null) put(doc.getId(), item, list);
+                            }
+                        }
+                    }));
+        }
+    }
+
+    /**
+     * Finds the user's movies matching a query. Every word of the query must match a word of the
+     * movie exactly, as the start of a word, or with one typo.
+     * @param query The search text.
+     * @param limit The most movies to return.
+     * @return The matches, best first.
+     */
+    public List<Movie> search(String query, int limit) {
+        List<String> queryWords = tokenize(query);
+        if (queryWords.isEmpty() || entries.isEmpty()) return Collections.emptyList();
+
+        Map<String, Integer> scores = null;
+        for (String word : queryWords) {
+            Map<String, Integer> wordScores = match(word);
+            if (scores == null) {
+                scores = wordScores;
+                continue;
+            }
+            Map<String, Integer> both = new HashMap<>();
+            for (Map.Entry<String, Integer> score : scores.entrySet()) {
+                Integer other = wordScores.get(score.getKey());
+                if (other != null) both.put(score.getKey(), score.getValue() + other);
+            }
+            scores = both;
+            if (scores.isEmpty()) break;
+        }
+
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(scores.entrySet());
+        Collections.sort(ranked, (a, b) -> {
+            int byScore = Integer.compare(b.getValue(), a.getValue());
+            if (byScore != 0) return byScore;
+            return title(a.getKey()).compareToIgnoreCase(title(b.getKey()));
+        });
+
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            movies.add(entries.get(ranked.get(i).getKey()).toMovie());
+        }
+        return movies;
+    }
+
+    /**
+     * Gets the movie document for a movie in the user's lists.
+     * @param tmdbId The TMDB movie ID.
+     * @return The movie document id, or null if the movie is in neither list.
+     */
+    public String getDocId(int tmdbId) {
+        return docIdsByTmdbId.get(tmdbId);
+    }
+
+    /**
+     * Gets the number of indexed movies.
+     * @return The number of movies in either list.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    // Best score per movie for one query word
+    private Map<String, Integer> match(String word) {
+        Map<String, Integer> scores = new HashMap<>();
+        // Every word starting with this one sorts between it and the word followed by the last char
+        for (Map.Entry<String, Set<String>> hit : words.subMap(word, true, word + Character.MAX_VALUE, false).entrySet()) {
+            int score = hit.getKey().equals(word) ? SCORE_EXACT : SCORE_PREFIX;
+            for (String docId : hit.getValue()) scores.merge(docId, score, Math::max);
+        }
+        if (word.length() >= MIN_FUZZY_LENGTH) {
+            for (String near : nearWords(word)) {
+                for (String docId : words.get(near)) scores.merge(docId, SCORE_FUZZY, Math::max);
+            }
+        }
+        return scores;
+    }
+
+    // Indexed words one insertion, deletion, substitution or swap away
+    private Set<String> nearWords(String word) {
+        Set<String> candidates = new HashSet<>();
+        // The word is an indexed word with one character missing
+        Set<String> longer = deletions.get(word);
+        if (longer != null) candidates.addAll(longer);
+        for (String shorter : deleteOne(word)) {
+            // The word has one character too many
+            if (words.containsKey(shorter)) candidates.add(shorter);
+            // Both lose a character in the same place, or neighbouring ones for a swap
+            Set<String> same = deletions.get(shorter);
+            if (same != null) candidates.addAll(same);
+        }
+        candidates.remove(word);
+        Set<String> near = new HashSet<>();
+        for (String candidate : candidates) {
+            if (withinOneEdit(word, candidate)) near.add(candidate);
+        }
+        return near;
+    }
+
+    private void put(String docId, MovieListItem item, int list) {
+        Entry entry = entries.get(docId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(docId, entry);
+        } else {
+            unindex(docId, entry);
+        }
+        entry.item = item;
+        entry.lists |= 1 << list;
+        entry.words = new HashSet<>(tokenize(item.getTitle()));
+        entry.words.addAll(tokenize(item.getGenre()));
+        entry.words.addAll(tokenize(item.getReleaseYear()));
+        for (String word : entry.words) {
+            Set<String> docIds = words.get(word);
+            if (docIds == null) {
+                docIds = new HashSet<>();
+                words.put(word, docIds);
+                for (String shorter : deleteOne(word)) {
+                    Set<String> from = deletions.get(shorter);
+                    if (from == null) {
+                        from = new HashSet<>();
+                        deletions.put(shorter, from);
+                    }
+                    from.add(word);
+                }
+            }
+            docIds.add(docId);
+        }
+        docIdsByTmdbId.put(item.getTmdbId(), docId);
+    }
+
+    private void remove(String docId, int list) {
+        Entry entry = entries.get(docId);
+        if (entry == null) return;
+        entry.lists &= ~(1 << list);
+        // Still in the other list
+        if (entry.lists != 0) return;
+        unindex(docId, entry);
+        entries.remove(docId);
+        docIdsByTmdbId.remove(entry.item.getTmdbId());
+    }
+
+    private void unindex(String docId, Entry entry) {
+        for (String word : entry.words) {
+            Set<String> docIds = words.get(word);
+            if (docIds == null) continue;
+            docIds.remove(docId);
+            if (!docIds.isEmpty()) continue;
+            words.remove(word);
+            for (String shorter : deleteOne(word)) {
+                Set<String> from = deletions.get(shorter);
+                if (from == null) continue;
+                from.remove(word);
+                if (from.isEmpty()) deletions.remove(shorter);
+            }
+        }
+    }
+
+    private String title(String docId) {
+        String title = entries.get(docId).item.getTitle();
+        return title != null ? title : "";
+    }
+
+    private void stopIfUnused() {
+        if (subscribers == 0) stop();
+    }
+
+    private void stop() {
+        handler.removeCallbacks(stopIfUnused);
+        for (ListenerRegistration registration : registrations) registration.remove();
+        registrations.clear();
+        // Without listeners the index would go stale; the next start reloads it in full
+        entries.clear();
+        docIdsByTmdbId.clear();
+        words.clear();
+        deletions.clear();
+    }
+
+    /**
+     * Splits text into lower-case words without accents, so "Amélie" matches "amelie".
+     * @param text The text, or null.
+     * @return The words, in order.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        String plain = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        for (String token : plain.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static List<String> deleteOne(String word) {
+        List<String> shorter = new ArrayList<>(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            shorter.add(word.substring(0, i) + word.substring(i + 1));
+        }
+        return shorter;
+    }
+
+    // Damerau-Levenshtein distance of at most one, checked in a single pass
+    private static boolean withinOneEdit(String a, String b) {
+        int la = a.length();
+        int lb = b.length();
+        if (Math.abs(la - lb) > 1) return false;
+        int i = 0;
+        while (i < la && i < lb && a.charAt(i) == b.charAt(i)) i++;
+        if (la == lb) {
+            if (i == la) return true;
+            if (a.substring(i + 1).equals(b.substring(i + 1))) return true;
+            // Two neighbouring characters swapped
+            return i + 1 < la && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                    && a.substring(i + 2).equals(b.substring(i + 2));
+        }
+        return la > lb ? a.substring(i + 1).equals(b.substring(i)) : a.substring(i).equals(b.substring(i + 1));
+    }
+
+    // One movie and the lists it is in
+    private static final class Entry {
+        MovieListItem item;
+        // Bit per entry of LISTS
+        int lists;
+        Set<String> words = Collections.emptySet();
+
+        Movie toMovie() {
+            Movie movie = new Movie(item.getTitle(), item.getPosterUrl(), null,
+                    item.getReleaseYear(), item.getTmdbId());
+            movie.setGenre(item.getGenre());
+            return movie;
+        }
+    }
+}
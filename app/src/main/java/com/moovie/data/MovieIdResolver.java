@@ -0,0 +1,213 @@
+package com.moovie.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+import com.moovie.model.Movie;
+import com.moovie.util.FirebaseUtil;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps TMDB ids to documents in the movies collection without querying by tmdbId on every tap.
+ *
+ * New movie documents get a deterministic id derived from the TMDB id, so resolving them is a
+ * single direct get. Movies created before that have random ids; the migrateMovieIds cloud
+ * function moves them to their deterministic ids once, server-side. Until it has run, and for
+ * documents older clients still create, a miss on the deterministic id falls back to the tmdbId
+ * query. When that finds several documents, the same rule as the dedupeMovies cloud function
+ * picks one, so both agree on which document survives.
+ *
+ * Resolved ids are kept in memory and in SharedPreferences. A deterministic id is never merged
+ * away, so it is trusted as is; a random id is checked against the server before use, and
+ * replaced by its redirect if dedupeMovies removed it.
+ *
+ * Creation is a get-or-create transaction on the deterministic document, so concurrent callers
+ * adding the same movie end up with one document. Duplicates left over from before are folded
+ * together by dedupeMovies, which leaves a redirect behind for each document it removes; see
+ * {@link #followRedirect(String)}.
+ */
+public class MovieIdResolver {
+
+    private static final String PREFS_NAME = "movie_ids";
+    // Written by the per-device migration this class used to run
+    private static final String KEY_MIGRATED = "migrated_v1";
+
+    private static MovieIdResolver sInstance;
+
+    private final FirebaseFirestore firestore;
+    private final SharedPreferences prefs;
+    private final Map<Integer, String> docIds = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the shared resolver.
+     * @param ctx Any context.
+     * @return The resolver.
+     */
+    public static synchronized MovieIdResolver getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new MovieIdResolver(ctx.getApplicationContext(), FirebaseUtil.getFirestore());
+        }
+        return sInstance;
+    }
+
+    MovieIdResolver(Context ctx, FirebaseFirestore firestore) {
+        this.firestore = firestore;
+        this.prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        // Mappings from the old full-collection index kept the first document by id, which
+        // is not necessarily the one dedupeMovies keeps; drop them and resolve again on demand
+        if (prefs.getBoolean(KEY_MIGRATED, false)) prefs.edit().clear().apply();
+        for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+            if (e.getValue() instanceof String) {
+                try {
+                    docIds.put(Integer.parseInt(e.getKey()), (String) e.getValue());
+                } catch (NumberFormatException ignore) {
+                    // not a mapping entry
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the deterministic document id for a TMDB id.
+     * @param tmdbId The TMDB movie ID.
+     * @return The id new movie documents are created under.
+     */
+    public static String docIdFor(int tmdbId) {
+        return "tmdb_" + tmdbId;
+    }
+
+    /**
+     * Gets an already known document id without any network access. A random id may have been
+     * merged away since; use {@link #resolve(Movie)} where that matters.
+     * @param tmdbId The TMDB movie ID.
+     * @return The document id, or null if it has not been resolved yet.
+     */
+    public String getCached(int tmdbId) {
+        return docIds.get(tmdbId);
+    }
+
+    /**
+     * Finds the document for a movie, creating it under the deterministic id if there is none.
+     * @param movie The movie, as returned by TMDB.
+     * @return A task completed with the movie's document id.
+     */
+    public Task<String> resolve(Movie movie) {
+        int tmdbId = movie.getTmdbId();
+        String known = docIds.get(tmdbId);
+        if (known == null) return lookUp(movie);
+        if (known.equals(docIdFor(tmdbId))) return Tasks.forResult(known);
+
+        // A random id may have been merged into another document by dedupeMovies
+        DocumentReference knownRef = firestore.collection("movies").document(known);
+        return knownRef.get(Source.SERVER).continueWithTask(task -> {
+            if (!task.isSuccessful()) {
+                // Offline: the cached id is the best answer there is
+                return Tasks.forResult(known);
+            }
+            if (task.getResult().exists()) return Tasks.forResult(known);
+            forget(tmdbId);
+            return followRedirect(known).continueWithTask(redirect -> {
+                String canonicalId = redirect.isSuccessful() ? redirect.getResult() : null;
+                return canonicalId != null ? Tasks.forResult(canonicalId) : lookUp(movie);
+            });
+        });
+    }
+
+    private Task<String> lookUp(Movie movie) {
+        int tmdbId = movie.getTmdbId();
+        DocumentReference ref = firestore.collection("movies").document(docIdFor(tmdbId));
+        return ref.get().continueWithTask(task -> {
+            if (task.getResult().exists()) {
+                return Tasks.forResult(remember(tmdbId, ref.getId()));
+            }
+            // A document created before deterministic ids, or by an older client
+            return firestore.collection("movies")
+                    .whereEqualTo("tmdbId", tmdbId)
+                    .get()
+                    .continueWithTask(query -> {
+                        List<DocumentSnapshot> docs = query.getResult().getDocuments();
+                        if (!docs.isEmpty()) {
+                            String canonicalId = pickCanonical(tmdbId, docs).getId();
+                            return Tasks.forResult(remember(tmdbId, canonicalId));
+                        }
+                        return create(ref, movie);
+                    });
+        });
+    }
+
+    /**
+     * Picks the document that survives when a TMDB id has several, by the same rule as the
+     * dedupeMovies cloud function: the deterministic document if present, otherwise the one
+     * carrying the most ratings and rankings, ties broken by the lowest id.
+     * @param tmdbId The TMDB movie ID.
+     * @param docs The documents for that TMDB id; not empty.
+     * @return The canonical document.
+     */
+    static DocumentSnapshot pickCanonical(int tmdbId, List<DocumentSnapshot> docs) {
+        DocumentSnapshot best = null;
+        long bestWeight = -1;
+        for (DocumentSnapshot doc : docs) {
+            if (doc.getId().equals(docIdFor(tmdbId))) return doc;
+            long weight = countOf(doc, "numRatings") + countOf(doc, "numRankings");
+            if (best == null || weight > bestWeight
+                    || (weight == bestWeight && doc.getId().compareTo(best.getId()) < 0)) {
+                best = doc;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    private static long countOf(DocumentSnapshot doc, String field) {
+        Long count = doc.getLong(field);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Looks up where a movie document that no longer exists was merged to.
+     * @param docId The id of the missing document.
+     * @return A task completed with the surviving document id, or null if there is no redirect.
+     */
+    public Task<String> followRedirect(String docId) {
+        return firestore.collection("movieRedirects").document(docId).get().continueWith(task -> {
+            DocumentSnapshot redirect = task.getResult();
+            String canonicalId = redirect.getString("canonicalId");
+            Long tmdbId = redirect.getLong("tmdbId");
+            if (canonicalId == null) return null;
+            if (tmdbId != null) remember(tmdbId.intValue(), canonicalId);
+            return canonicalId;
+        });
+    }
+
+    // Get-or-create in one transaction, so racing callers never overwrite each other
+    private Task<String> create(DocumentReference ref, Movie movie) {
+        return firestore.runTransaction(transaction -> {
+            if (!transaction.get(ref).exists()) {
+                transaction.set(ref, movie);
+            }
+            return ref.getId();
+        }).continueWith(task -> remember(movie.getTmdbId(), task.getResult()));
+    }
+
+    private void forget(int tmdbId) {
+        if (docIds.remove(tmdbId) != null) {
+            prefs.edit().remove(String.valueOf(tmdbId)).apply();
+        }
+    }
+
+    private String remember(int tmdbId, String docId) {
+        if (!docId.equals(docIds.put(tmdbId, docId))) {
+            prefs.edit().putString(String.valueOf(tmdbId), docId).apply();
+        }
+        return docId;
+    }
+}
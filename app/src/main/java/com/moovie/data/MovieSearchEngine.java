@@ -0,0 +1,301 @@
+package com.moovie.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.moovie.model.Movie;
+import com.moovie.model.TMDBResponse;
+import com.moovie.util.ApiService;
+import com.moovie.util.TtlLruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Type-ahead movie search for the search screen.
+ *
+ * Results are cached by normalized query. While the user keeps typing, the cached results of the
+ * longest shorter prefix are filtered locally and shown at once; the network result replaces
+ * them once it arrives. The preview is never final, even when TMDB returned every match for the
+ * prefix: TMDB also matches original and alternative titles and ignores accents, which a filter
+ * on the display title cannot reproduce. Only the latest query can be in flight: a new keystroke
+ * cancels the previous call, so a late response can never overwrite newer results. The debounce
+ * before a request follows the observed response time, short on a fast network and longer on a
+ * slow one.
+ *
+ * Movies from the user's own lists are looked up in a {@link LocalMovieIndex} on every keystroke
+ * and listed first, ahead of TMDB results for other movies. If TMDB cannot be reached, those are
+ * shown on their own.
+ *
+ * Not thread-safe: use it from the main thread, where Retrofit delivers callbacks.
+ */
+public class MovieSearchEngine {
+
+    private static final String TAG = "MovieSearchEngine";
+
+    private static final int CACHE_SIZE = 50;
+    private static final long CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long MIN_DEBOUNCE_MS = 150;
+    private static final long MAX_DEBOUNCE_MS = 600;
+    // Wait roughly half a round trip before committing to a request
+    private static final double DEBOUNCE_PER_LATENCY = 0.5;
+    private static final double LATENCY_ALPHA = 0.3;
+    private static final int MAX_LOCAL_RESULTS = 10;
+
+    private final ApiService apiService;
+    private final String authHeader;
+    private final Listener listener;
+    private final LocalMovieIndex localIndex;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final TtlLruCache<String, Results> cache = new TtlLruCache<>(CACHE_SIZE, CACHE_TTL_MS);
+
+    private String currentQuery = "";
+    private List<Movie> localResults = Collections.emptyList();
+    private Call<TMDBResponse> inFlight;
+    private Runnable pendingRequest;
+    private double latencyEmaMs = 400;
+    private boolean released;
+
+    private int apiCalls;
+    private int cancelled;
+    private int cacheHits;
+    private int previews;
+
+    /**
+     * Constructor for MovieSearchEngine.
+     * @param apiService The TMDB service.
+     * @param authHeader The TMDB Authorization header value.
+     * @param localIndex The user's own movies, or null to search TMDB only.
+     * @param listener Receives results for the current query.
+     */
+    public MovieSearchEngine(ApiService apiService, String authHeader, LocalMovieIndex localIndex,
+                             Listener listener) {
+        this.apiService = apiService;
+        this.authHeader = authHeader;
+        this.localIndex = localIndex;
+        this.listener = listener;
+    }
+
+    /**
+     * Handles new search box text.
+     * @param text The text as typed.
+     */
+    public void onQueryChanged(String text) {
+        if (released) return;
+        String query = normalize(text);
+        if (query.equals(currentQuery)) return;
+        currentQuery = query;
+        cancelPending();
+
+        if (query.isEmpty()) {
+            localResults = Collections.emptyList();
+            listener.onResults(query, Collections.emptyList(), true);
+            return;
+        }
+        localResults = localIndex != null
+                ? localIndex.search(query, MAX_LOCAL_RESULTS) : Collections.emptyList();
+
+        Results exact = cache.get(query);
+        if (exact != null) {
+            cacheHits++;
+            listener.onResults(query, withLocal(exact.movies), true);
+            return;
+        }
+
+        // Always a preview, even an empty one, so the previous query's results never linger
+        Results prefix = longestCachedPrefix(query);
+        if (prefix != null) {
+            previews++;
+            listener.onResults(query, withLocal(filter(prefix.movies, query)), false);
+        } else {
+            listener.onResults(query, localResults, false);
+        }
+
+        pendingRequest = () -> {
+            pendingRequest = null;
+            request(query);
+        };
+        handler.postDelayed(pendingRequest, getDebounceMs());
+    }
+
+    /**
+     * Stops any pending or in-flight request. Later input is ignored.
+     */
+    public void release() {
+        released = true;
+        cancelPending();
+    }
+
+    /**
+     * Gets the current debounce.
+     * @return How long typing must pause before a request is sent, in milliseconds.
+     */
+    public long getDebounceMs() {
+        long debounce = Math.round(latencyEmaMs * DEBOUNCE_PER_LATENCY);
+        return Math.max(MIN_DEBOUNCE_MS, Math.min(MAX_DEBOUNCE_MS, debounce));
+    }
+
+    /**
+     * Gets the search counters.
+     * @return A readable summary of requests sent, cache hits and local previews shown.
+     */
+    public String getStats() {
+        return "apiCalls=" + apiCalls + ", cancelled=" + cancelled + ", cacheHits=" + cacheHits
+                + ", previews=" + previews + ", latencyEma=" + Math.round(latencyEmaMs)
+                + "ms, debounce=" + getDebounceMs() + "ms";
+    }
+
+    /**
+     * Normalizes a query so equivalent inputs share a cache entry.
+     * @param text The raw text.
+     * @return The text trimmed, lower-cased, with runs of whitespace collapsed.
+     */
+    static String normalize(String text) {
+        if (text == null) return "";
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private void request(String query) {
+        apiCalls++;
+        long start = SystemClock.elapsedRealtime();
+        Call<TMDBResponse> call = apiService.searchMovies(authHeader, query);
+        inFlight = call;
+        call.enqueue(new Callback<TMDBResponse>() {
+            @Override
+            public void onResponse(@NonNull Call<TMDBResponse> call,
+                                   @NonNull Response<TMDBResponse> response) {
+                if (inFlight == call) inFlight = null;
+                if (call.isCanceled() || released) return;
+                recordLatency(SystemClock.elapsedRealtime() - start);
+
+                TMDBResponse body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    if (query.equals(currentQuery)) {
+                        fail(query, new RuntimeException("Search failed: " + response.code()));
+                    }
+                    return;
+                }
+                List<Movie> movies = body.getResults() != null ? body.getResults() : new ArrayList<>();
+                Results results = new Results(movies);
+                cache.put(query, results);
+                if (query.equals(currentQuery)) {
+                    listener.onResults(query, withLocal(results.movies), true);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<TMDBResponse> call, @NonNull Throwable t) {
+                if (inFlight == call) inFlight = null;
+                if (call.isCanceled() || released) return;
+                Log.w(TAG, "Search failed for \"" + query + "\": " + getStats(), t);
+                if (query.equals(currentQuery)) fail(query, t);
+            }
+        });
+    }
+
+    // Offline, the user's own movies are still an answer
+    private void fail(String query, Throwable t) {
+        if (localResults.isEmpty()) {
+            listener.onError(query, t);
+        } else {
+            listener.onResults(query, localResults, true);
+        }
+    }
+
+    // The user's own movies first, then the other results without repeating them
+    private List<Movie> withLocal(List<Movie> remote) {
+        if (localResults.isEmpty()) return remote;
+        Set<Integer> local = new HashSet<>();
+        for (Movie movie : localResults) local.add(movie.getTmdbId());
+        List<Movie> merged = new ArrayList<>(localResults);
+        for (Movie movie : remote) {
+            if (!local.contains(movie.getTmdbId())) merged.add(movie);
+        }
+        return merged;
+    }
+
+    private void cancelPending() {
+        if (pendingRequest != null) {
+            handler.removeCallbacks(pendingRequest);
+            pendingRequest = null;
+        }
+        if (inFlight != null) {
+            inFlight.cancel();
+            inFlight = null;
+            cancelled++;
+        }
+    }
+
+    private void recordLatency(long ms) {
+        latencyEmaMs += LATENCY_ALPHA * (ms - latencyEmaMs);
+    }
+
+    private Results longestCachedPrefix(String query) {
+        for (int end = query.length() - 1; end > 0; end--) {
+            Results results = cache.get(query.substring(0, end).trim());
+            if (results != null) return results;
+        }
+        return null;
+    }
+
+    // Keeps movies whose title contains every word of the query, the last one possibly unfinished
+    private static List<Movie> filter(List<Movie> movies, String query) {
+        String[] words = query.split(" ");
+        List<Movie> matches = new ArrayList<>();
+        for (Movie movie : movies) {
+            String title = normalize(movie.getTitle());
+            boolean all = true;
+            for (String word : words) {
+                if (!title.contains(word)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) matches.add(movie);
+        }
+        return matches;
+    }
+
+    // Cached results for one normalized query
+    private static final class Results {
+        final List<Movie> movies;
+
+        Results(List<Movie> movies) {
+            this.movies = Collections.unmodifiableList(new ArrayList<>(movies));
+        }
+    }
+
+    /**
+     * Receives search results.
+     */
+    public interface Listener {
+        /**
+         * Called with results for the current query.
+         * @param query The normalized query.
+         * @param movies The matching movies; a preview may be empty.
+         * @param isFinal false for a locally filtered preview a network result will replace.
+         */
+        void onResults(String query, List<Movie> movies, boolean isFinal);
+
+        /**
+         * Called when the current query's request failed.
+         * @param query The normalized query.
+         * @param t The cause.
+         */
+        void onError(String query, Throwable t);
+    }
+}
@@ -0,0 +1,227 @@
+package com.moovie.data;
+
+import android.util.Log;
+
+import com.moovie.model.watchmode.Platform;
+import com.moovie.util.HttpStatusException;
+import com.moovie.util.RateLimiter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A batch of TMDB ids being resolved to streaming platforms by {@link WatchmodeRepository}.
+ *
+ * Only a few lookups run at once; each one goes through the repository's caches and in-flight
+ * coalescing, so a batch and a detail screen asking for the same movie share one request. When
+ * Watchmode answers 429 the batch stops starting new lookups until the Retry-After delay has
+ * passed, then retries the rejected id. Lookups wait in the background lane of the rate limiter.
+ *
+ * Ids served from an expired disk store entry are reported straight away and refreshed
+ * afterwards, through the same limit and pauses once every miss has been started, so a long
+ * stale list never floods the worker pool.
+ */
+public class PlatformBatch {
+
+    private static final String TAG = "PlatformBatch";
+
+    private static final int MAX_PARALLEL = 2;
+    private static final int MAX_RETRIES = 3;
+    private static final long DEFAULT_PAUSE_MS = 2000;
+    private static final long BUSY_PAUSE_MS = 500;
+
+    private final WatchmodeRepository repo;
+    private final WatchmodeRepository.BatchCallback callback;
+    private final Set<Integer> ids = new LinkedHashSet<>();
+
+    // All guarded by this
+    private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+    private final ArrayDeque<Integer> refreshes = new ArrayDeque<>();
+    private final Map<Integer, Object> inFlight = new HashMap<>();
+    // Ids in inFlight that were already reported and are only being refreshed
+    private final Set<Integer> refreshing = new HashSet<>();
+    private final Map<Integer, Integer> retries = new HashMap<>();
+    private int resolved;
+    private int failed;
+    private long pausedUntil;
+    private boolean cancelled;
+    private boolean completed;
+
+    PlatformBatch(WatchmodeRepository repo, Collection<Integer> tmdbIds,
+                  WatchmodeRepository.BatchCallback callback) {
+        this.repo = repo;
+        this.callback = callback;
+        for (Integer id : tmdbIds) {
+            if (id != null) ids.add(id);
+        }
+    }
+
+    void start() {
+        for (int id : ids) {
+            WatchmodeRepository.Result cached = repo.peekCached(id);
+            if (cached != null) {
+                synchronized (this) {
+                    resolved++;
+                    if (cached.stale) refreshes.add(id);
+                }
+                callback.onResult(id, cached.titleId, cached.platforms);
+            } else {
+                synchronized (this) {
+                    pending.add(id);
+                }
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Stops the batch. Lookups not yet reported are dropped and onComplete is not called.
+     */
+    public void cancel() {
+        List<Object> keys;
+        synchronized (this) {
+            cancelled = true;
+            pending.clear();
+            refreshes.clear();
+            refreshing.clear();
+            keys = new ArrayList<>(inFlight.values());
+            inFlight.clear();
+        }
+        for (Object key : keys) {
+            repo.cancel(key);
+        }
+    }
+
+    /**
+     * Gets the number of distinct ids in the batch.
+     * @return The batch size after deduplication.
+     */
+    public int getTotal() {
+        return ids.size();
+    }
+
+    /**
+     * Gets the number of ids not reported yet.
+     * @return The remaining count.
+     */
+    public synchronized int getRemaining() {
+        return ids.size() - resolved - failed;
+    }
+
+    // Starts lookups up to the parallelism limit, or reports completion once nothing is left
+    private void pump() {
+        Map<Integer, Object> toStart = new HashMap<>();
+        boolean complete = false;
+        int resolvedCount;
+        int failedCount;
+        synchronized (this) {
+            if (cancelled) return;
+            if (pending.isEmpty() && refreshes.isEmpty() && inFlight.isEmpty()) {
+                complete = !completed;
+                completed = true;
+            } else if (System.currentTimeMillis() >= pausedUntil) {
+                // Misses first; refreshes only use slots nothing unreported is waiting for
+                while (inFlight.size() < MAX_PARALLEL
+                        && (!pending.isEmpty() || !refreshes.isEmpty())) {
+                    Integer id = pending.poll();
+                    if (id == null) {
+                        id = refreshes.poll();
+                        refreshing.add(id);
+                    }
+                    Object key = new Object();
+                    inFlight.put(id, key);
+                    toStart.put(id, key);
+                }
+            }
+            resolvedCount = resolved;
+            failedCount = failed;
+        }
+
+        if (complete) {
+            callback.onComplete(resolvedCount, failedCount);
+            return;
+        }
+
+        for (Map.Entry<Integer, Object> e : toStart.entrySet()) {
+            int id = e.getKey();
+            boolean refresh;
+            synchronized (this) {
+                refresh = refreshing.contains(id);
+            }
+            WatchmodeRepository.PlatformsCallback lookupCallback =
+                    new WatchmodeRepository.PlatformsCallback() {
+                        @Override
+                        public void onSuccess(String titleId, List<Platform> platforms) {
+                            boolean refreshed;
+                            synchronized (PlatformBatch.this) {
+                                if (inFlight.remove(id) == null) return;
+                                // A refresh only updates the caches; the id was reported already
+                                refreshed = refreshing.remove(id);
+                                if (!refreshed) resolved++;
+                            }
+                            if (!refreshed) callback.onResult(id, titleId, platforms);
+                            pump();
+                        }
+
+                        @Override
+                        public void onError(Exception ex) {
+                            onLookupFailed(id, ex);
+                        }
+                    };
+            if (refresh) {
+                repo.refresh(id, e.getValue(), lookupCallback);
+            } else {
+                // Batches are prefetch work; a detail screen asking for the same movie promotes it
+                repo.fetchPlatformsByTmdbId(id, e.getValue(), RateLimiter.Lane.BACKGROUND,
+                        lookupCallback);
+            }
+        }
+    }
+
+    private void onLookupFailed(int id, Exception e) {
+        long pause = retryDelay(e);
+        boolean refresh;
+        synchronized (this) {
+            if (inFlight.remove(id) == null) return;
+            refresh = refreshing.remove(id);
+
+            int attempts = retries.containsKey(id) ? retries.get(id) : 0;
+            if (pause >= 0 && attempts < MAX_RETRIES) {
+                retries.put(id, attempts + 1);
+                if (refresh) refreshes.addFirst(id);
+                else pending.addFirst(id);
+                // Back off further on every retry of the same id
+                long delay = pause << attempts;
+                pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+                Log.d(TAG, "Pausing batch for " + delay + "ms after: " + e.getMessage());
+                repo.schedule(this::pump, delay);
+                return;
+            }
+            if (!refresh) failed++;
+        }
+        // A failed refresh leaves the stale result that was reported in place
+        if (refresh) Log.d(TAG, "Refresh failed for " + id + ": " + e.getMessage());
+        else callback.onError(id, e);
+        pump();
+    }
+
+    // How long to pause before retrying, or -1 if the error is not worth retrying
+    private static long retryDelay(Exception e) {
+        if (e instanceof HttpStatusException && ((HttpStatusException) e).isRateLimited()) {
+            long retryAfter = ((HttpStatusException) e).getRetryAfterMs();
+            return retryAfter > 0 ? retryAfter : DEFAULT_PAUSE_MS;
+        }
+        if (e.getCause() instanceof RejectedExecutionException) {
+            return BUSY_PAUSE_MS;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,294 @@
+package com.moovie.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.moovie.model.MovieListItem;
+import com.moovie.util.FirebaseUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The signed-in user's ranked list, kept in memory by a single snapshot listener.
+ *
+ * The ranking screen, the ranked tab and the movie detail screen all read the list from here
+ * instead of querying it themselves. Every snapshot rebuilds an index from watched document id
+ * to position, so looking up where a movie is ranked does not scan the list, and decoded items
+ * are kept until their document changes. The listener starts with the first subscriber and stays
+ * attached for a short while after the last one leaves, so moving between those screens does not
+ * query again.
+ *
+ * Subscribers get every snapshot, including the first one from the local cache. {@link #load()}
+ * waits for one the server has confirmed, since the ranking screen places a movie by the whole
+ * list; only when none arrives within a few seconds, e.g. offline, does it settle for the cache.
+ *
+ * Not thread-safe: use it from the main thread, where Firestore delivers snapshots.
+ */
+public class RankedListRepository {
+
+    private static final String TAG = "RankedListRepository";
+
+    // How long the listener stays attached without subscribers
+    private static final long LINGER_MS = 30_000;
+
+    // How long load() waits for a server snapshot before settling for the cached one
+    private static final long SERVER_WAIT_MS = 5_000;
+
+    private static RankedListRepository sInstance;
+
+    private final String uid;
+    private final Query query;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable stopIfUnused = this::stopIfUnused;
+    private final Runnable settleForCache = this::settleForCache;
+
+    private final List<Listener> listeners = new ArrayList<>();
+    private final List<TaskCompletionSource<List<DocumentSnapshot>>> pendingLoads = new ArrayList<>();
+    private ListenerRegistration registration;
+
+    private List<DocumentSnapshot> documents = Collections.emptyList();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Map<String, MovieListItem> decoded = new HashMap<>();
+    private boolean loaded;
+    // Whether the last snapshot was confirmed by the server
+    private boolean synced;
+
+    /**
+     * Gets the repository for the signed-in user, replacing the previous user's one.
+     * @return The repository.
+     * @throws IllegalStateException If nobody is signed in.
+     */
+    public static synchronized RankedListRepository getInstance() {
+        FirebaseUser user = FirebaseUtil.getAuth().getCurrentUser();
+        if (user == null) {
+            // Don't keep listening to a signed-out user's list
+            if (sInstance != null) sInstance.stop();
+            sInstance = null;
+            throw new IllegalStateException("The ranked list needs a signed-in user");
+        }
+        String uid = user.getUid();
+        if (sInstance == null || !sInstance.uid.equals(uid)) {
+            if (sInstance != null) sInstance.stop();
+            sInstance = new RankedListRepository(FirebaseUtil.getFirestore(), uid);
+        }
+        return sInstance;
+    }
+
+    RankedListRepository(FirebaseFirestore firestore, String uid) {
+        this.uid = uid;
+        this.query = firestore.collection("users").document(uid).collection("watched")
+                .whereEqualTo("ranked", true)
+                .orderBy("rankIndex", Query.Direction.ASCENDING);
+    }
+
+    /**
+     * Subscribes to the list. The listener is called right away if the list is already loaded.
+     * @param listener Receives the list on every change.
+     */
+    public void addListener(Listener listener) {
+        if (listeners.contains(listener)) return;
+        listeners.add(listener);
+        start();
+        if (loaded) listener.onRankedListChanged(documents);
+    }
+
+    /**
+     * Unsubscribes from the list.
+     * @param listener A listener passed to {@link #addListener(Listener)}.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            handler.removeCallbacks(stopIfUnused);
+            handler.postDelayed(stopIfUnused, LINGER_MS);
+        }
+    }
+
+    /**
+     * Gets the list once, from memory when the listener is live and in sync with the server.
+     * @return A task completed with the ranked documents, best first.
+     */
+    public Task<List<DocumentSnapshot>> load() {
+        if (synced && registration != null) return Tasks.forResult(documents);
+        TaskCompletionSource<List<DocumentSnapshot>> source = new TaskCompletionSource<>();
+        pendingLoads.add(source);
+        start();
+        handler.removeCallbacks(settleForCache);
+        handler.postDelayed(settleForCache, SERVER_WAIT_MS);
+        if (listeners.isEmpty()) {
+            handler.removeCallbacks(stopIfUnused);
+            handler.postDelayed(stopIfUnused, LINGER_MS);
+        }
+        return source.getTask();
+    }
+
+    /**
+     * Gets the ranked documents as of the last snapshot.
+     * @return An unmodifiable list, best first; empty until loaded.
+     */
+    public List<DocumentSnapshot> getDocuments() {
+        return documents;
+    }
+
+    /**
+     * Gets where a movie is in the list.
+     * @param watchedId The id of the movie's watched document.
+     * @return The 0-based position, or -1 if it is not ranked.
+     */
+    public int getPosition(String watchedId) {
+        Integer position = positions.get(watchedId);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Gets the fraction of the list ranked above a movie.
+     * @param watchedId The id of the movie's watched document.
+     * @return From 0 for the top movie up to just under 1, or -1 if it is not ranked.
+     */
+    public double getFractionAbove(String watchedId) {
+        int position = getPosition(watchedId);
+        return position < 0 ? -1 : (double) position / documents.size();
+    }
+
+    /**
+     * Gets a ranked document as a model object, deserializing each document version only once.
+     * @param doc A document from the list.
+     * @return The decoded item, or null if the document has no data.
+     */
+    public MovieListItem getItem(DocumentSnapshot doc) {
+        MovieListItem item = decoded.get(doc.getId());
+        if (item != null) return item;
+        item = doc.toObject(MovieListItem.class);
+        // Only cache the current version, not an older snapshot a caller held on to
+        Integer position = positions.get(doc.getId());
+        if (item != null && position != null && documents.get(position) == doc) {
+            decoded.put(doc.getId(), item);
+        }
+        return item;
+    }
+
+    /**
+     * Gets the number of ranked movies.
+     * @return The list length as of the last snapshot.
+     */
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * Checks whether a snapshot has arrived.
+     * @return true if the list is loaded.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private void start() {
+        handler.removeCallbacks(stopIfUnused);
+        if (registration != null) return;
+        // Metadata changes too, to learn when a cached list has been confirmed by the server
+        registration = query.addSnapshotListener(MetadataChanges.INCLUDE, (snapshot, e) -> {
+            if (e != null) {
+                Log.w(TAG, "Ranked list listener failed", e);
+                // The listener is dead after an error; the next subscriber starts a new one
+                registration = null;
+                loaded = false;
+                synced = false;
+                handler.removeCallbacks(settleForCache);
+                for (TaskCompletionSource<List<DocumentSnapshot>> source : drainPendingLoads()) {
+                    source.setException(e);
+                }
+                return;
+            }
+            if (snapshot == null) return;
+
+            synced = !snapshot.getMetadata().isFromCache();
+            // Metadata-only snapshots leave the documents as they were
+            boolean changed = !loaded || !snapshot.getDocumentChanges().isEmpty();
+            if (changed) {
+                for (DocumentChange change : snapshot.getDocumentChanges()) {
+                    decoded.remove(change.getDocument().getId());
+                }
+                documents = Collections.unmodifiableList(new ArrayList<>(snapshot.getDocuments()));
+                positions.clear();
+                for (int i = 0; i < documents.size(); i++) {
+                    positions.put(documents.get(i).getId(), i);
+                }
+                loaded = true;
+            }
+
+            if (synced) {
+                handler.removeCallbacks(settleForCache);
+                for (TaskCompletionSource<List<DocumentSnapshot>> source : drainPendingLoads()) {
+                    source.setResult(documents);
+                }
+            }
+            if (!changed) return;
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onRankedListChanged(documents);
+            }
+        });
+    }
+
+    // No server snapshot in time, e.g. offline: the cached list is the best answer there is
+    private void settleForCache() {
+        if (!loaded) {
+            // Not even the cache has answered; keep waiting
+            if (!pendingLoads.isEmpty()) handler.postDelayed(settleForCache, SERVER_WAIT_MS);
+            return;
+        }
+        Log.d(TAG, "No server snapshot yet; loading the cached ranked list");
+        for (TaskCompletionSource<List<DocumentSnapshot>> source : drainPendingLoads()) {
+            source.setResult(documents);
+        }
+    }
+
+    private List<TaskCompletionSource<List<DocumentSnapshot>>> drainPendingLoads() {
+        List<TaskCompletionSource<List<DocumentSnapshot>>> drained = new ArrayList<>(pendingLoads);
+        pendingLoads.clear();
+        return drained;
+    }
+
+    private void stopIfUnused() {
+        if (listeners.isEmpty() && pendingLoads.isEmpty()) stop();
+    }
+
+    private void stop() {
+        handler.removeCallbacks(stopIfUnused);
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        handler.removeCallbacks(settleForCache);
+        // Without a listener the list would go stale
+        loaded = false;
+        synced = false;
+        decoded.clear();
+    }
+
+    /**
+     * Receives the ranked list whenever it changes.
+     */
+    public interface Listener {
+        /**
+         * Called with the current list.
+         * @param documents The ranked watched documents, best first.
+         */
+        void onRankedListChanged(List<DocumentSnapshot> documents);
+    }
+}
@@ -0,0 +1,272 @@
+package com.moovie.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.moovie.model.Movie;
+import com.moovie.model.TMDBResponse;
+import com.moovie.util.ApiService;
+import com.moovie.util.ImageUtil;
+import com.moovie.util.TmdbPoster;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Buffer of upcoming movies for the swipe screen.
+ *
+ * Whole discover pages are fetched in a random order and every usable movie on them is kept, so
+ * most swipes are served from memory. When the buffer drops below a low-water mark the next page
+ * is fetched in the background. Movies already shown, already buffered, or already in the user's
+ * watched or want-to-watch lists are skipped, and the posters of the next few cards are preloaded.
+ *
+ * Not thread-safe: use it from the main thread, where Retrofit and Firestore deliver callbacks.
+ */
+public class SwipeDeck {
+
+    private static final String TAG = "SwipeDeck";
+
+    private static final int PAGE_COUNT = 50;
+    private static final int CAPACITY = 40;
+    private static final int LOW_WATER = 8;
+    private static final int PRELOAD_COUNT = 3;
+
+    private final Context appContext;
+    private final ApiService apiService;
+    private final String authHeader;
+
+    private final ArrayDeque<Movie> buffer = new ArrayDeque<>(CAPACITY);
+    private final ArrayDeque<Integer> pageOrder = new ArrayDeque<>(PAGE_COUNT);
+    private final Set<Integer> seenIds = new HashSet<>();
+    private final Set<Integer> excludedIds = new HashSet<>();
+    private final Set<Integer> preloadedIds = new HashSet<>();
+    private final List<ListenerRegistration> registrations = new ArrayList<>();
+
+    private Call<TMDBResponse> inFlight;
+    private DeckListener pending;
+    // Pages fetched since a page last yielded a new movie; stops a fruitless sweep
+    private int emptyPages;
+    private boolean released;
+
+    private int apiCalls;
+    private int served;
+
+    /**
+     * Constructor for SwipeDeck.
+     * @param ctx Used to preload posters.
+     * @param apiService The TMDB service.
+     * @param authHeader The TMDB Authorization header value.
+     */
+    public SwipeDeck(Context ctx, ApiService apiService, String authHeader) {
+        this.appContext = ctx.getApplicationContext();
+        this.apiService = apiService;
+        this.authHeader = authHeader;
+    }
+
+    /**
+     * Starts filling the buffer and keeps the exclusion list in sync with the user's lists.
+     * @param firestore The Firestore instance.
+     * @param uid The signed-in user's id, or null to skip exclusion.
+     */
+    public void start(FirebaseFirestore firestore, String uid) {
+        if (uid != null) {
+            for (String list : new String[]{"watched", "wantToWatch"}) {
+                registrations.add(firestore.collection("users").document(uid).collection(list)
+                        .addSnapshotListener((snapshot, e) -> {
+                            if (e != null) {
+                                Log.w(TAG, "Could not load " + list, e);
+                                return;
+                            }
+                            onListSnapshot(snapshot);
+                        }));
+            }
+        }
+        refillIfNeeded();
+    }
+
+    /**
+     * Delivers the next movie, immediately when one is buffered. A later call replaces an
+     * undelivered earlier one.
+     * @param listener Receives the movie or an error.
+     */
+    public void next(DeckListener listener) {
+        if (released) return;
+        Movie movie = buffer.poll();
+        if (movie != null) {
+            pending = null;
+            served++;
+            listener.onMovie(movie);
+        } else {
+            pending = listener;
+        }
+        refillIfNeeded();
+        preload();
+    }
+
+    /**
+     * Keeps a movie from being shown again, e.g. right after the user adds it to a list.
+     * @param tmdbId The TMDB movie ID.
+     */
+    public void exclude(int tmdbId) {
+        excludedIds.add(tmdbId);
+    }
+
+    /**
+     * Stops loading and detaches the Firestore listeners.
+     */
+    public void release() {
+        released = true;
+        pending = null;
+        if (inFlight != null) inFlight.cancel();
+        for (ListenerRegistration r : registrations) {
+            r.remove();
+        }
+        registrations.clear();
+    }
+
+    /**
+     * Gets the buffer counters.
+     * @return A readable summary of movies served per API call.
+     */
+    public String getStats() {
+        return "served=" + served + ", apiCalls=" + apiCalls + ", buffered=" + buffer.size()
+                + ", excluded=" + excludedIds.size();
+    }
+
+    private void onListSnapshot(QuerySnapshot snapshot) {
+        if (snapshot == null) return;
+        for (DocumentSnapshot doc : snapshot.getDocuments()) {
+            Long tmdbId = doc.getLong("tmdbId");
+            if (tmdbId != null) excludedIds.add(tmdbId.intValue());
+        }
+        // Drop anything buffered before the lists arrived
+        Iterator<Movie> it = buffer.iterator();
+        while (it.hasNext()) {
+            if (excludedIds.contains(it.next().getTmdbId())) it.remove();
+        }
+        refillIfNeeded();
+    }
+
+    private void refillIfNeeded() {
+        if (released || inFlight != null) return;
+        if (buffer.size() >= LOW_WATER && pending == null) return;
+
+        if (emptyPages >= PAGE_COUNT) {
+            fail(new IllegalStateException("No more movies to discover"));
+            return;
+        }
+        if (pageOrder.isEmpty()) {
+            // A full sweep is done; start over in a new order and allow repeats from older sweeps
+            List<Integer> pages = new ArrayList<>(PAGE_COUNT);
+            for (int i = 1; i <= PAGE_COUNT; i++) pages.add(i);
+            Collections.shuffle(pages);
+            pageOrder.addAll(pages);
+            seenIds.clear();
+        }
+
+        int page = pageOrder.poll();
+        apiCalls++;
+        inFlight = apiService.discoverMovies(authHeader, page);
+        inFlight.enqueue(new Callback<TMDBResponse>() {
+            @Override
+            public void onResponse(@NonNull Call<TMDBResponse> call,
+                                   @NonNull Response<TMDBResponse> response) {
+                inFlight = null;
+                if (released) return;
+                if (!response.isSuccessful() || response.body() == null) {
+                    fail(new RuntimeException("Discover page " + page + " failed: " + response.code()));
+                    return;
+                }
+                onPage(response.body().getResults());
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<TMDBResponse> call, @NonNull Throwable t) {
+                inFlight = null;
+                if (!released && !call.isCanceled()) fail(t);
+            }
+        });
+    }
+
+    private void onPage(List<Movie> movies) {
+        int added = 0;
+        if (movies != null) {
+            List<Movie> shuffled = new ArrayList<>(movies);
+            Collections.shuffle(shuffled);
+            for (Movie m : shuffled) {
+                if (buffer.size() >= CAPACITY) break;
+                int id = m.getTmdbId();
+                if (excludedIds.contains(id) || !seenIds.add(id)) continue;
+                buffer.add(m);
+                added++;
+            }
+        }
+        emptyPages = added > 0 ? 0 : emptyPages + 1;
+
+        if (pending != null && !buffer.isEmpty()) {
+            DeckListener listener = pending;
+            pending = null;
+            served++;
+            listener.onMovie(buffer.poll());
+        }
+        refillIfNeeded();
+        preload();
+    }
+
+    private void fail(Throwable t) {
+        Log.w(TAG, "Refill failed: " + getStats(), t);
+        DeckListener listener = pending;
+        pending = null;
+        if (listener != null) listener.onError(t);
+    }
+
+    // Warms Glide's cache with the posters of the next few cards
+    private void preload() {
+        int i = 0;
+        for (Movie m : buffer) {
+            if (i++ >= PRELOAD_COUNT) break;
+            if (!preloadedIds.add(m.getTmdbId())) continue;
+            TmdbPoster poster = ImageUtil.poster(m.getPosterUrl());
+            if (poster != null) {
+                // Same size and crop as the card's poster in item_api_movie, whose centerCrop
+                // scale type Glide applies when binding, so both share one memory cache key
+                Glide.with(appContext).load(poster)
+                        .centerCrop()
+                        .preload(ImageUtil.dpToPx(appContext, 80), ImageUtil.dpToPx(appContext, 120));
+            }
+        }
+    }
+
+    /**
+     * Receives movies from the deck.
+     */
+    public interface DeckListener {
+        /**
+         * Called with the next movie to show.
+         * @param movie The movie.
+         */
+        void onMovie(Movie movie);
+
+        /**
+         * Called when no movie could be loaded.
+         * @param t The cause.
+         */
+        void onError(Throwable t);
+    }
+}
@@ -0,0 +1,282 @@
+package com.moovie.data;
+
+import android.util.Log;
+
+import com.moovie.model.watchmode.Platform;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk-backed store for the Watchmode logo catalog and per-title platform lists, so streaming
+ * availability survives process death.
+ *
+ * The whole store is one small binary file that is memory-mapped and parsed once at startup and
+ * rewritten atomically after changes. A file written with a different format version is
+ * discarded. Every entry records when it was fetched so callers can decide what is stale.
+ */
+public class WatchmodeDiskStore {
+
+    private static final String TAG = "WMDiskStore";
+
+    private static final int MAGIC = 0x4D56574D; // "MVWM"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_TITLES = 500;
+
+    private final File file;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    // All guarded by this
+    private final Map<Integer, TitleEntry> titles = new HashMap<>();
+    private final Map<Integer, String> logos = new HashMap<>();
+    private long logosFetchedAt;
+
+    /**
+     * Constructor for WatchmodeDiskStore.
+     * @param file The file backing the store.
+     */
+    public WatchmodeDiskStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the store from disk. Safe to call once; a missing, corrupt or outdated file just
+     * leaves the store empty.
+     */
+    public void load() {
+        try {
+            if (!file.exists() || file.length() == 0) return;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                parse(buf);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Discarding unreadable store", e);
+            synchronized (this) {
+                titles.clear();
+                logos.clear();
+                logosFetchedAt = 0;
+            }
+            file.delete();
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Waits for {@link #load()} to finish.
+     * @param timeoutMs The maximum time to wait, in milliseconds.
+     * @return true if the store is loaded.
+     */
+    public boolean awaitLoaded(long timeoutMs) {
+        try {
+            return loaded.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether {@link #load()} has finished, without blocking.
+     * @return true if the store is loaded.
+     */
+    public boolean isLoaded() {
+        return loaded.getCount() == 0;
+    }
+
+    /**
+     * Gets the stored platforms for a TMDB id.
+     * @param tmdbId The TMDB movie ID.
+     * @return The entry, or null if none is stored.
+     */
+    public synchronized TitleEntry getTitle(int tmdbId) {
+        return titles.get(tmdbId);
+    }
+
+    /**
+     * Stores the platforms resolved for a TMDB id, dropping the oldest entries beyond the limit.
+     * @param tmdbId The TMDB movie ID.
+     * @param titleId The Watchmode title ID.
+     * @param platforms The platforms for the title.
+     */
+    public synchronized void putTitle(int tmdbId, String titleId, List<Platform> platforms) {
+        titles.put(tmdbId, new TitleEntry(titleId, platforms, System.currentTimeMillis()));
+        if (titles.size() > MAX_TITLES) {
+            List<Map.Entry<Integer, TitleEntry>> byAge = new ArrayList<>(titles.entrySet());
+            Collections.sort(byAge, (a, b) -> Long.compare(a.getValue().fetchedAt, b.getValue().fetchedAt));
+            for (int i = 0; i < byAge.size() - MAX_TITLES; i++) {
+                titles.remove(byAge.get(i).getKey());
+            }
+        }
+    }
+
+    /**
+     * Gets a copy of the stored logo catalog.
+     * @return Source id to logo URL.
+     */
+    public synchronized Map<Integer, String> getLogos() {
+        return new HashMap<>(logos);
+    }
+
+    /**
+     * Gets when the stored logo catalog was fetched.
+     * @return Epoch millis, or 0 if no catalog is stored.
+     */
+    public synchronized long getLogosFetchedAt() {
+        return logosFetchedAt;
+    }
+
+    /**
+     * Replaces the stored logo catalog.
+     * @param catalog Source id to logo URL.
+     */
+    public synchronized void putLogos(Map<Integer, String> catalog) {
+        logos.clear();
+        logos.putAll(catalog);
+        logosFetchedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the store to disk, replacing the previous file atomically.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save() throws IOException {
+        Map<Integer, TitleEntry> titlesCopy;
+        Map<Integer, String> logosCopy;
+        long logosAt;
+        synchronized (this) {
+            titlesCopy = new HashMap<>(titles);
+            logosCopy = new HashMap<>(logos);
+            logosAt = logosFetchedAt;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeLong(logosAt);
+            out.writeInt(logosCopy.size());
+            for (Map.Entry<Integer, String> e : logosCopy.entrySet()) {
+                out.writeInt(e.getKey());
+                writeString(out, e.getValue());
+            }
+
+            out.writeInt(titlesCopy.size());
+            for (Map.Entry<Integer, TitleEntry> e : titlesCopy.entrySet()) {
+                TitleEntry entry = e.getValue();
+                out.writeInt(e.getKey());
+                writeString(out, entry.titleId);
+                out.writeLong(entry.fetchedAt);
+                out.writeShort(entry.platforms.size());
+                for (Platform p : entry.platforms) {
+                    writeString(out, p.getId());
+                    writeString(out, p.getName());
+                    writeString(out, p.getLogo());
+                    writeString(out, p.getRegion());
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private void parse(ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC) throw new IOException("Bad magic");
+        int version = buf.getInt();
+        if (version != FORMAT_VERSION) throw new IOException("Unsupported version " + version);
+
+        Map<Integer, String> logoMap = new HashMap<>();
+        long logosAt = buf.getLong();
+        int logoCount = buf.getInt();
+        for (int i = 0; i < logoCount; i++) {
+            int id = buf.getInt();
+            logoMap.put(id, readString(buf));
+        }
+
+        Map<Integer, TitleEntry> titleMap = new HashMap<>();
+        int titleCount = buf.getInt();
+        for (int i = 0; i < titleCount; i++) {
+            int tmdbId = buf.getInt();
+            String titleId = readString(buf);
+            long fetchedAt = buf.getLong();
+            int platformCount = buf.getShort();
+            List<Platform> platforms = new ArrayList<>(platformCount);
+            for (int j = 0; j < platformCount; j++) {
+                platforms.add(new Platform(readString(buf), readString(buf),
+                        readString(buf), readString(buf)));
+            }
+            titleMap.put(tmdbId, new TitleEntry(titleId, platforms, fetchedAt));
+        }
+
+        synchronized (this) {
+            logos.putAll(logoMap);
+            logosFetchedAt = logosAt;
+            titles.putAll(titleMap);
+        }
+    }
+
+    // Strings are a signed short byte length (-1 for null) followed by UTF-8 bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(bytes.length, Short.MAX_VALUE);
+        out.writeShort(len);
+        out.write(bytes, 0, len);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Platforms stored for one title.
+     */
+    public static class TitleEntry {
+        public final String titleId;
+        public final List<Platform> platforms;
+        public final long fetchedAt;
+
+        TitleEntry(String titleId, List<Platform> platforms, long fetchedAt) {
+            this.titleId = titleId;
+            this.platforms = platforms;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * Checks whether the entry is older than the given age.
+         * @param maxAgeMs The maximum age, in milliseconds.
+         * @return true if the entry should be refreshed.
+         */
+        public boolean isStale(long maxAgeMs) {
+            return System.currentTimeMillis() - fetchedAt > maxAgeMs;
+        }
+    }
+}
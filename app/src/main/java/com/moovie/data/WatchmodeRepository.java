@@ -3,35 +3,90 @@ package com.moovie.data;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import com.moovie.model.watchmode.Platform;
 import com.moovie.model.watchmode.TitleResultsResponse;
 import com.moovie.model.watchmode.TitleSourcesResponse;
+import com.moovie.util.BoundedExecutor;
+import com.moovie.util.RateLimiter;
+import com.moovie.util.TtlLruCache;
+import com.moovie.util.WMApiClient;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import okhttp3.Request;
-import okhttp3.OkHttpClient;
-import okhttp3.Response;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Repository for interacting with the WatchMode API.
  */
 public class WatchmodeRepository {
 
-    private final String apiKey;
-    private final OkHttpClient http = new OkHttpClient();
+    private static final String TAG = "WPRepo";
+
+    // Defaults used when no executor is supplied
+    private static final int DEFAULT_POOL_SIZE = 3;
+    private static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    private final WMApiClient api;
+    private final BoundedExecutor executor;
     private final Gson gson = new Gson();
 
-    // Simple in-memory cache: titleId -> platforms
-    private final Map<String, List<Platform>> cache = new HashMap<>();
-    private Map<Integer, String> logoCache = new HashMap<>();
+    // tmdbId -> Watchmode title id rarely changes; platform availability does
+    private static final long TITLE_ID_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long PLATFORMS_TTL_MS = 6L * 60 * 60 * 1000;
+    private static final int TITLE_ID_CACHE_SIZE = 500;
+    private static final int PLATFORMS_CACHE_SIZE = 200;
+    private static final long LOGOS_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    // How long a lookup waits for the disk store to finish loading at startup
+    private static final long STORE_WAIT_MS = 2000;
+
+    // How long platform resolution waits for the logo catalog before going ahead without logos
+    private static final long LOGO_WAIT_MS = 3000;
+
+    private static final PlatformsCallback NO_OP_CALLBACK = new PlatformsCallback() {
+        @Override public void onSuccess(String titleId, List<Platform> platforms) {}
+        @Override public void onError(Exception e) {}
+    };
+
+    private final TtlLruCache<Integer, String> titleIdCache =
+            new TtlLruCache<>(TITLE_ID_CACHE_SIZE, TITLE_ID_TTL_MS);
+    private final TtlLruCache<String, List<Platform>> cache =
+            new TtlLruCache<>(PLATFORMS_CACHE_SIZE, PLATFORMS_TTL_MS);
+    private final Map<Integer, String> logoCache = new ConcurrentHashMap<>();
+
+    // The single logo catalog load every caller waits on; guarded by this
+    private CompletableFuture<Map<Integer, String>> logoFuture;
+
+    // Requests currently on the network, keyed so concurrent misses share one; guarded by itself
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final Map<Object, Waiter> waitersByKey = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    // Optional persistence across process restarts
+    private final WatchmodeDiskStore store;
+    private final AtomicBoolean saveQueued = new AtomicBoolean();
+
+    // Created on first use, for delayed work such as resuming a rate-limited batch
+    private ScheduledExecutorService scheduler;
 
 
     /**
@@ -39,7 +94,97 @@ public class WatchmodeRepository {
      * @param apiKey The WatchMode API key.
      */
     public WatchmodeRepository(String apiKey) {
-        this.apiKey = apiKey;
+        this(new WMApiClient(apiKey),
+                new BoundedExecutor("wm-worker", DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY), null);
+    }
+
+    /**
+     * Constructor for WatchmodeRepository with a caller-configured worker pool.
+     * @param apiKey The WatchMode API key.
+     * @param executor The bounded pool all requests run on.
+     */
+    public WatchmodeRepository(String apiKey, BoundedExecutor executor) {
+        this(new WMApiClient(apiKey), executor, null);
+    }
+
+    /**
+     * Constructor for WatchmodeRepository that persists platforms and logos to disk. The store
+     * is loaded on the worker pool straight away.
+     * @param apiKey The WatchMode API key.
+     * @param executor The bounded pool all requests run on.
+     * @param storeFile The file backing the disk store, or null to keep everything in memory.
+     */
+    public WatchmodeRepository(String apiKey, BoundedExecutor executor, File storeFile) {
+        this(new WMApiClient(apiKey), executor, storeFile);
+    }
+
+    /**
+     * Constructor for WatchmodeRepository sharing an API client, and with it the client's rate
+     * limiter, with other Watchmode callers.
+     * @param api The rate-limited Watchmode client.
+     * @param executor The bounded pool all requests run on.
+     * @param storeFile The file backing the disk store, or null to keep everything in memory.
+     */
+    public WatchmodeRepository(WMApiClient api, BoundedExecutor executor, File storeFile) {
+        this.api = api;
+        this.executor = executor;
+        this.store = storeFile != null ? new WatchmodeDiskStore(storeFile) : null;
+
+        if (store != null) {
+            try {
+                executor.submit(store::load);
+            } catch (RejectedExecutionException e) {
+                store.load();
+            }
+        }
+    }
+
+    /**
+     * Gets the worker pool metrics (queue depth, task latency, cancellations).
+     * @return The current executor stats.
+     */
+    public BoundedExecutor.Stats getExecutorStats() {
+        return executor.getStats();
+    }
+
+    /**
+     * Gets the cache counters for the TMDB lookup and platform caches.
+     * @return A readable summary of hits, misses and evictions.
+     */
+    public String getCacheStats() {
+        return "titleIds[" + titleIdCache.getStats() + "], platforms[" + cache.getStats()
+                + "], coalesced=" + coalesced.get();
+    }
+
+    /**
+     * Gets the API client's request, retry and rate limiter counters.
+     * @return A readable summary.
+     */
+    public String getApiStats() {
+        return api.getStats();
+    }
+
+    /**
+     * Cancels the pending request made under the given key, if any. Its callback is not
+     * invoked. The underlying network request is only cancelled when nobody else is waiting on it.
+     * @param requestKey The key passed when the request was made.
+     */
+    public void cancel(Object requestKey) {
+        if (requestKey == null) return;
+        Flight orphaned = null;
+        synchronized (flights) {
+            Waiter waiter = waitersByKey.remove(requestKey);
+            if (waiter != null) {
+                waiter.flight.waiters.remove(waiter);
+                if (waiter.flight.waiters.isEmpty()) {
+                    flights.remove(waiter.flight.key);
+                    orphaned = waiter.flight;
+                }
+            }
+        }
+        if (orphaned != null) {
+            executor.cancel(orphaned);
+        }
     }
 
     // Resolve by TMDB id to platforms
@@ -49,31 +194,163 @@ public class WatchmodeRepository {
      * @param callback The callback to receive the results or error.
      */
     public void fetchPlatformsByTmdbId(int tmdbId, PlatformsCallback callback) {
-        new Thread(() -> {
-            try {
-                String url = "https://api.watchmode.com/v1/search/?apiKey=" + apiKey +
-                        "&search_field=tmdb_movie_id&search_value=" + tmdbId +
-                        "&types=movie";
-
-                String json = httpGet(url);
-                TitleResultsResponse resp = gson.fromJson(json, TitleResultsResponse.class);
-                if (resp == null || resp.title_results == null || resp.title_results.isEmpty()) {
-                    callback.onError(new IOException("Watchmode title not found for TMDB " + tmdbId));
-                    return;
-                }
+        fetchPlatformsByTmdbId(tmdbId, null, callback);
+    }
 
-                String titleId = String.valueOf(resp.title_results.get(0).id);
-                List<Platform> platforms = fetchSourcesForTitleId(titleId);
+    /**
+     * Fetches streaming platforms for a given TMDB movie ID. A later request made with the same
+     * key supersedes this one if it has not finished yet.
+     *
+     * Cached results are delivered immediately on the calling thread; otherwise the callback runs
+     * on a worker thread. The request waits in the foreground lane of the rate limiter.
+     * @param tmdbId The TMDB movie ID.
+     * @param requestKey Key identifying the caller, or null.
+     * @param callback The callback to receive the results or error.
+     */
+    public void fetchPlatformsByTmdbId(int tmdbId, Object requestKey, PlatformsCallback callback) {
+        fetchPlatformsByTmdbId(tmdbId, requestKey, RateLimiter.Lane.FOREGROUND, callback);
+    }
 
-                // Deduplicate
-                platforms = deduplicatePlatforms(platforms);
+    /**
+     * Fetches streaming platforms for a given TMDB movie ID in the given rate limiter lane. If a
+     * foreground caller joins a background request for the same movie, the rest of that request
+     * is promoted to the foreground lane.
+     * @param tmdbId The TMDB movie ID.
+     * @param requestKey Key identifying the caller, or null.
+     * @param lane The rate limiter lane for the network requests.
+     * @param callback The callback to receive the results or error.
+     */
+    public void fetchPlatformsByTmdbId(int tmdbId, Object requestKey, RateLimiter.Lane lane,
+                                       PlatformsCallback callback) {
+        Result cached = getCached(tmdbId);
+        if (cached != null) {
+            cancel(requestKey);
+            callback.onSuccess(cached.titleId, cached.platforms);
+            return;
+        }
 
-                cache.put(titleId, platforms);
-                callback.onSuccess(titleId, platforms);
-            } catch (Exception e) {
-                callback.onError(e);
+        join("tmdb:" + tmdbId, requestKey, lane, callback, flight -> {
+            if (store != null) {
+                store.awaitLoaded(STORE_WAIT_MS);
+                Result stored = fromStore(tmdbId);
+                if (stored != null) return stored;
             }
-        }).start();
+            return loadFromNetwork(tmdbId, flight);
+        });
+    }
+
+    /**
+     * Resolves platforms for many TMDB ids at once, e.g. to annotate a whole watchlist.
+     *
+     * Ids are deduplicated and cache hits are reported immediately on the calling thread. Misses
+     * are fetched a few at a time so the batch never floods the worker pool, and the batch
+     * pauses when Watchmode reports its rate limit was hit. Results are streamed to the callback
+     * as they complete, mostly on worker threads.
+     * @param tmdbIds The TMDB movie IDs.
+     * @param callback Receives each result and a final completion call.
+     * @return A handle that can cancel the rest of the batch.
+     */
+    public PlatformBatch fetchPlatformsForTmdbIds(Collection<Integer> tmdbIds, BatchCallback callback) {
+        PlatformBatch batch = new PlatformBatch(this, tmdbIds, callback);
+        batch.start();
+        return batch;
+    }
+
+    // Memory first, then the disk store if it has finished loading; a stale stored entry is
+    // refreshed in the background
+    Result getCached(int tmdbId) {
+        Result cached = peekCached(tmdbId);
+        if (cached != null && cached.stale) refresh(tmdbId, null, NO_OP_CALLBACK);
+        return cached;
+    }
+
+    // As getCached, but leaves refreshing a stale entry to the caller, which can pace it
+    Result peekCached(int tmdbId) {
+        String titleId = titleIdCache.get(tmdbId);
+        if (titleId != null) {
+            List<Platform> cached = cache.get(titleId);
+            if (cached != null) return new Result(titleId, withLogos(cached));
+        }
+
+        // Restored from a previous run
+        if (store != null && store.isLoaded()) {
+            return fromStore(tmdbId);
+        }
+        return null;
+    }
+
+    /**
+     * Refetches a title's platforms in the background lane, sharing the request with any other
+     * refresh of the same title. The caches and the disk store are updated when it completes.
+     */
+    void refresh(int tmdbId, Object requestKey, PlatformsCallback callback) {
+        join("refresh:" + tmdbId, requestKey, RateLimiter.Lane.BACKGROUND, callback, flight -> {
+            String titleId = titleIdCache.get(tmdbId);
+            if (titleId != null) cache.remove(titleId);
+            return loadFromNetwork(tmdbId, flight);
+        });
+    }
+
+    // Runs a task after a delay without holding a worker thread while waiting
+    void schedule(Runnable task, long delayMs) {
+        scheduler().schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wm-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return scheduler;
+    }
+
+    private Result loadFromNetwork(int tmdbId, Flight flight) throws IOException {
+        String id = titleIdCache.get(tmdbId);
+        if (id == null) {
+            id = searchTitleId(tmdbId, flight.lane);
+            titleIdCache.put(tmdbId, id);
+        }
+        List<Platform> platforms = loadPlatforms(id, flight.lane);
+        if (store != null) {
+            store.putTitle(tmdbId, id, platforms);
+            scheduleSave();
+        }
+        return new Result(id, platforms);
+    }
+
+    /**
+     * Serves a title from the disk store. Fresh entries are promoted to the memory caches; stale
+     * ones are still returned, marked stale so the caller can have them refreshed.
+     */
+    private Result fromStore(int tmdbId) {
+        WatchmodeDiskStore.TitleEntry entry = store.getTitle(tmdbId);
+        if (entry == null) return null;
+
+        // The title id outlives the platforms, so a refresh only needs the sources request
+        titleIdCache.put(tmdbId, entry.titleId);
+        boolean stale = entry.isStale(PLATFORMS_TTL_MS);
+        if (!stale) cache.put(entry.titleId, entry.platforms);
+        return new Result(entry.titleId, withLogos(entry.platforms), stale);
+    }
+
+    // Coalesces writes: at most one save is queued at a time
+    private void scheduleSave() {
+        if (!saveQueued.compareAndSet(false, true)) return;
+        try {
+            executor.submit(() -> {
+                saveQueued.set(false);
+                try {
+                    store.save();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save Watchmode store", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            saveQueued.set(false);
+        }
     }
 
     // Resolve by known WM title_id
@@ -83,19 +360,128 @@ public class WatchmodeRepository {
      * @param callback The callback to receive the results or error.
      */
     public void fetchSourcesForTitleId(String titleId, PlatformsCallback callback) {
-        new Thread(() -> {
-            try {
-                if (cache.containsKey(titleId)) {
-                    callback.onSuccess(titleId, cache.get(titleId));
+        List<Platform> cached = cache.get(titleId);
+        if (cached != null) {
+            callback.onSuccess(titleId, withLogos(cached));
+            return;
+        }
+        join("title:" + titleId, null, RateLimiter.Lane.FOREGROUND, callback,
+                flight -> new Result(titleId, loadPlatforms(titleId, flight.lane)));
+    }
+
+    private String searchTitleId(int tmdbId, RateLimiter.Lane lane) throws IOException {
+        String endpoint = "search/?search_field=tmdb_movie_id&search_value=" + tmdbId +
+                "&types=movie";
+
+        TitleResultsResponse resp = api.get(endpoint, lane,
+                reader -> gson.fromJson(reader, TitleResultsResponse.class));
+        if (resp == null || resp.title_results == null || resp.title_results.isEmpty()) {
+            throw new IOException("Watchmode title not found for TMDB " + tmdbId);
+        }
+        return String.valueOf(resp.title_results.get(0).id);
+    }
+
+    // Fetches, deduplicates and caches the platforms for a title, reusing a live cache entry
+    private List<Platform> loadPlatforms(String titleId, RateLimiter.Lane lane) throws IOException {
+        List<Platform> platforms = cache.get(titleId);
+        if (platforms == null) {
+            platforms = deduplicatePlatforms(fetchSourcesForTitleId(titleId, lane));
+            cache.put(titleId, platforms);
+        }
+        return platforms;
+    }
+
+    /**
+     * Attaches a callback to the in-flight request for a key, starting the request if there is
+     * none.
+     */
+    private void join(String flightKey, Object requestKey, RateLimiter.Lane lane,
+                      PlatformsCallback callback, Loader loader) {
+        Flight flight;
+        boolean start = false;
+        Flight orphaned = null;
+        synchronized (flights) {
+            // Supersede this caller's previous request
+            Waiter previous = requestKey != null ? waitersByKey.remove(requestKey) : null;
+            if (previous != null) {
+                previous.flight.waiters.remove(previous);
+                if (previous.flight.waiters.isEmpty() && !previous.flight.key.equals(flightKey)) {
+                    flights.remove(previous.flight.key);
+                    orphaned = previous.flight;
+                }
+            }
+
+            flight = flights.get(flightKey);
+            if (flight == null) {
+                flight = new Flight(flightKey, lane);
+                flights.put(flightKey, flight);
+                start = true;
+            } else {
+                coalesced.incrementAndGet();
+                // Someone is now waiting on this in the foreground
+                if (lane == RateLimiter.Lane.FOREGROUND) flight.lane = lane;
+            }
+            Waiter waiter = new Waiter(requestKey, callback, flight);
+            flight.waiters.add(waiter);
+            if (requestKey != null) {
+                waitersByKey.put(requestKey, waiter);
+            }
+        }
+        if (orphaned != null) {
+            executor.cancel(orphaned);
+        }
+        if (!start) return;
+
+        final Flight started = flight;
+        try {
+            executor.submit(started, () -> {
+                Result result = null;
+                Exception error = null;
+                try {
+                    result = loader.load(started);
+                } catch (Exception e) {
+                    error = e;
+                }
+                // A cancelled flight has already been detached from its waiters
+                if (isCancelled()) return;
+                if (error != null) {
+                    for (Waiter w : finish(started)) w.callback.onError(error);
                     return;
                 }
-                List<Platform> platforms = fetchSourcesForTitleId(titleId);
-                cache.put(titleId, platforms);
-                callback.onSuccess(titleId, platforms);
-            } catch (Exception e) {
-                callback.onError(e);
+                // Delivered from whichever thread completes the logos, never blocking this one
+                withLogosWhenReady(result).thenAccept(done -> {
+                    for (Waiter w : finish(started)) w.callback.onSuccess(done.titleId, done.platforms);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Request rejected, pool busy: " + executor.getStats());
+            IOException busy = new IOException("Watchmode request queue is full", e);
+            for (Waiter w : finish(started)) {
+                w.callback.onError(busy);
             }
-        }).start();
+        }
+    }
+
+    // Detaches and returns everyone waiting on a flight
+    private List<Waiter> finish(Flight flight) {
+        synchronized (flights) {
+            if (flights.get(flight.key) == flight) {
+                flights.remove(flight.key);
+            }
+            for (Waiter w : flight.waiters) {
+                if (w.requestKey != null && waitersByKey.get(w.requestKey) == w) {
+                    waitersByKey.remove(w.requestKey);
+                }
+            }
+            List<Waiter> waiters = new ArrayList<>(flight.waiters);
+            flight.waiters.clear();
+            return waiters;
+        }
+    }
+
+    // A superseded task is interrupted; its result should be dropped
+    private static boolean isCancelled() {
+        return Thread.currentThread().isInterrupted();
     }
 
     private List<Platform> deduplicatePlatforms(List<Platform> input) {
@@ -113,57 +499,60 @@ public class WatchmodeRepository {
     }
 
     // Original helper: assumes the WM response has { "sources": [ ... ] }
-    private List<Platform> fetchSourcesForTitleId(String titleId) throws IOException {
-        String json = httpGet("https://api.watchmode.com/v1/title/" + titleId + "/sources/?apiKey=" + apiKey);
-        // First, try object-with-sources
-        try {
-            Type type = new TypeToken<TitleSourcesResponse>() {}.getType();
-            TitleSourcesResponse resp = gson.fromJson(json, type);
-            List<Platform> list = new ArrayList<>();
+    private List<Platform> fetchSourcesForTitleId(String titleId, RateLimiter.Lane lane) throws IOException {
+        List<TitleSourcesResponse.SourceItem> items = api.get(
+                "title/" + titleId + "/sources/", lane, this::readSourceItems);
+        // Make sure the catalog is on its way; logos are attached when the result is delivered
+        getSourceLogos();
 
-            if (resp != null && resp.sources != null) {
-                for (TitleSourcesResponse.SourceItem s : resp.sources) {
-
-                    String logo = logoCache.get(s.source_id);
-                    list.add(new Platform(
-                            String.valueOf(s.source_id),
-                            s.name,
-                            logo,
-                            s.region
-                    ));
+        List<Platform> list = new ArrayList<>(items.size());
+        for (TitleSourcesResponse.SourceItem s : items) {
+            String logo = logoCache.get(s.source_id);
+            list.add(new Platform(
+                    String.valueOf(s.source_id),
+                    s.name,
+                    logo,
+                    s.region
+            ));
+        }
+        return list;
+    }
 
-                }
-                return list;
-            }
-        } catch (Exception ignore) {
-            // fall through to raw array parsing
+    // The sources endpoint answers either { "sources": [ ... ] } or a raw array of SourceItem;
+    // the first token tells which, so the body is parsed once
+    private List<TitleSourcesResponse.SourceItem> readSourceItems(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            return readArray(reader, TitleSourcesResponse.SourceItem.class);
         }
 
-        // Fallback: try parsing as a raw array of SourceItem
-        Type listType = new TypeToken<List<TitleSourcesResponse.SourceItem>>() {}.getType();
-        List<TitleSourcesResponse.SourceItem> items = gson.fromJson(json, listType);
-        List<Platform> list = new ArrayList<>();
-        if (items != null) {
-            for (TitleSourcesResponse.SourceItem s : items) {
-                String logo = logoCache.get(s.source_id);
-                list.add(new Platform(
-                        String.valueOf(s.source_id),
-                        s.name,
-                        logo,
-                        s.region
-                ));
+        List<TitleSourcesResponse.SourceItem> items = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("sources".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                items = readArray(reader, TitleSourcesResponse.SourceItem.class);
+            } else {
+                reader.skipValue();
             }
         }
-        return list;
+        reader.endObject();
+        return items;
     }
 
-    private String httpGet(String url) throws IOException {
-        Request req = new Request.Builder().url(url).build();
-        try (Response res = http.newCall(req).execute()) {
-            String body = res.body() != null ? res.body().string() : "";
-            if (!res.isSuccessful()) throw new IOException("HTTP error " + res);
-            return body;
+    // Reads elements through the type adapter rather than Gson.fromJson, which would turn a read
+    // timeout or a cancelled call into a syntax error; only real syntax errors are wrapped
+    private <T> List<T> readArray(JsonReader reader, Class<T> type) throws IOException {
+        TypeAdapter<T> adapter = gson.getAdapter(type);
+        List<T> items = new ArrayList<>();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                items.add(adapter.read(reader));
+            }
+            reader.endArray();
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
         }
+        return items;
     }
 
     /**
@@ -184,23 +573,203 @@ public class WatchmodeRepository {
         void onError(Exception e);
     }
 
+    /**
+     * Gets the source logo catalog, starting the load if it has not been started yet. Every
+     * caller shares the same load; a failed load is retried on the next call.
+     * @return A future completed with source id to logo URL.
+     */
+    public synchronized CompletableFuture<Map<Integer, String>> getSourceLogos() {
+        if (logoFuture == null || logoFuture.isCompletedExceptionally()) {
+            CompletableFuture<Map<Integer, String>> future = new CompletableFuture<>();
+            logoFuture = future;
+            try {
+                executor.submit(() -> loadLogos(future));
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(new IOException("Watchmode request queue is full", e));
+            }
+        }
+        return logoFuture;
+    }
+
+    private void loadLogos(CompletableFuture<Map<Integer, String>> future) {
+        try {
+            // A stored catalog is served right away and only refetched once stale
+            if (store != null && store.awaitLoaded(STORE_WAIT_MS)) {
+                Map<Integer, String> stored = store.getLogos();
+                if (!stored.isEmpty()) {
+                    logoCache.putAll(stored);
+                    future.complete(Collections.unmodifiableMap(stored));
+                    if (System.currentTimeMillis() - store.getLogosFetchedAt() < LOGOS_TTL_MS) {
+                        return;
+                    }
+                }
+            }
+            fetchSourceLogos(null);
+            future.complete(Collections.unmodifiableMap(new HashMap<>(logoCache)));
+        } catch (Exception e) {
+            if (!future.completeExceptionally(e)) {
+                Log.w(TAG, "Logo refresh failed", e);
+            }
+        }
+    }
+
+    /**
+     * Attaches logos to a result once the catalog has loaded, without holding a thread while it
+     * loads. Gives up after LOGO_WAIT_MS and delivers the result as it is; the logos are then
+     * attached the next time the platforms are read from a cache.
+     */
+    private CompletableFuture<Result> withLogosWhenReady(Result result) {
+        CompletableFuture<Map<Integer, String>> logos = getSourceLogos();
+        if (logos.isDone() || !lacksLogos(result.platforms)) {
+            return CompletableFuture.completedFuture(withLogos(result));
+        }
+        CompletableFuture<Result> timeout = new CompletableFuture<>();
+        schedule(() -> timeout.complete(withLogos(result)), LOGO_WAIT_MS);
+        CompletableFuture<Result> loaded = logos
+                .handle((catalog, e) -> {
+                    if (e != null) Log.w(TAG, "Logo catalog unavailable", e);
+                    return withLogos(result);
+                });
+        return loaded.applyToEither(timeout, done -> done);
+    }
+
+    private Result withLogos(Result result) {
+        return new Result(result.titleId, withLogos(result.platforms), result.stale);
+    }
+
+    /**
+     * Fills in logos the catalog has for platforms resolved before it arrived. Platforms are
+     * shared through the caches, so missing logos are filled in on copies.
+     * @return The same list if nothing was missing, otherwise a new one.
+     */
+    private List<Platform> withLogos(List<Platform> platforms) {
+        if (!hasLogosFor(platforms)) return platforms;
+        List<Platform> patched = new ArrayList<>(platforms.size());
+        for (Platform p : platforms) {
+            String logo = p.getLogo() == null ? logoFor(p) : null;
+            patched.add(logo != null ? p.withLogo(logo) : p);
+        }
+        return patched;
+    }
+
+    private static boolean lacksLogos(List<Platform> platforms) {
+        for (Platform p : platforms) {
+            if (p.getLogo() == null) return true;
+        }
+        return false;
+    }
+
+    // Whether the catalog can fill in any missing logo
+    private boolean hasLogosFor(List<Platform> platforms) {
+        for (Platform p : platforms) {
+            if (p.getLogo() == null && logoFor(p) != null) return true;
+        }
+        return false;
+    }
+
+    private String logoFor(Platform p) {
+        try {
+            return logoCache.get(Integer.parseInt(p.getId()));
+        } catch (NumberFormatException e) {
+            // not a Watchmode source id
+            return null;
+        }
+    }
+
     /**
      * Fetches source logos and caches them.
      * @param platformsCallback Unused callback, kept for compatibility or future use.
      * @throws IOException If the request fails.
      */
     public void fetchSourceLogos(PlatformsCallback platformsCallback) throws IOException {
-        String url = "https://api.watchmode.com/v1/sources/?apiKey=" + apiKey;
-        Log.d("WPRepo", "Sources Request: " + url );
-        String json = httpGet(url);
-        Log.d("WPRepo", "Sources Response: " + json );
-        Type listType = new TypeToken<List<SourceLogoItem>>() {}.getType();
-        List<SourceLogoItem> items = gson.fromJson(json, listType);
+        // Platform lookups wait on the catalog, so it goes in the foreground lane
+        List<SourceLogoItem> items = api.get("sources/", RateLimiter.Lane.FOREGROUND,
+                reader -> readArray(reader, SourceLogoItem.class));
+        Log.d(TAG, "Sources Response: " + items.size() + " sources");
         for (SourceLogoItem item : items) {
-            logoCache.put(item.id, item.logo_100px);
+            if (item.logo_100px != null) {
+                logoCache.put(item.id, item.logo_100px);
+            }
+        }
+        if (store != null) {
+            store.putLogos(logoCache);
+            scheduleSave();
+        }
+    }
+
+    private interface Loader {
+        Result load(Flight flight) throws IOException;
+    }
+
+    static final class Result {
+        final String titleId;
+        final List<Platform> platforms;
+        // Served from an expired disk store entry
+        final boolean stale;
+
+        Result(String titleId, List<Platform> platforms) {
+            this(titleId, platforms, false);
+        }
+
+        Result(String titleId, List<Platform> platforms, boolean stale) {
+            this.titleId = titleId;
+            this.platforms = platforms;
+            this.stale = stale;
+        }
+    }
+
+    // One network request shared by every caller that missed the cache on the same key
+    private static final class Flight {
+        final String key;
+        final List<Waiter> waiters = new ArrayList<>();
+        // Read before each network request, so a promotion applies to the rest of the flight
+        volatile RateLimiter.Lane lane;
+
+        Flight(String key, RateLimiter.Lane lane) {
+            this.key = key;
+            this.lane = lane;
         }
     }
 
+    private static final class Waiter {
+        final Object requestKey;
+        final PlatformsCallback callback;
+        final Flight flight;
+
+        Waiter(Object requestKey, PlatformsCallback callback, Flight flight) {
+            this.requestKey = requestKey;
+            this.callback = callback;
+            this.flight = flight;
+        }
+    }
+
+    /**
+     * Callback interface for batch platform lookups.
+     */
+    public interface BatchCallback {
+        /**
+         * Called for each TMDB id that was resolved.
+         * @param tmdbId The TMDB movie ID.
+         * @param titleId The WatchMode title ID.
+         * @param platforms The list of platforms.
+         */
+        void onResult(int tmdbId, String titleId, List<Platform> platforms);
+
+        /**
+         * Called for each TMDB id that could not be resolved.
+         * @param tmdbId The TMDB movie ID.
+         * @param e The exception.
+         */
+        void onError(int tmdbId, Exception e);
+
+        /**
+         * Called once after every id has been reported, unless the batch was cancelled.
+         * @param resolved The number of ids resolved.
+         * @param failed The number of ids that failed.
+         */
+        void onComplete(int resolved, int failed);
+    }
+
     /**
      * Inner class representing a source logo item from the API.
      */
@@ -0,0 +1,37 @@
+package com.moovie.model;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.List;
+
+/**
+ * Model class for the TMDB genre list response.
+ */
+public class GenreListResponse {
+
+    @SerializedName("genres")
+    private List<Genre> genres;
+
+    /**
+     * Gets the list of genres from the response.
+     * @return The list of genres.
+     */
+    public List<Genre> getGenres() {
+        return genres;
+    }
+
+    /**
+     * Model class for a single TMDB genre.
+     */
+    public static class Genre {
+
+        @SerializedName("id")
+        private int id;
+
+        @SerializedName("name")
+        private String name;
+
+        public int getId() { return id; }
+
+        public String getName() { return name; }
+    }
+}
@@ -13,8 +13,10 @@ public class MovieListItem {
     private String posterUrl;
     private long addedAt;
     private boolean ranked;
-    private int rankIndex;
+    private double rankIndex; // Sparse sort key, see RankKeys
+    private double rankNorm; // Position scaled to (0, 1), lower is better; aggregated server-side
     private String genre; // Add genre field
+    private String releaseYear; // Four-digit year, or null if unknown
 
     /**
      * Default constructor for MovieListItem.
@@ -48,6 +50,9 @@ public class MovieListItem {
             android.util.Log.d("MovieListItem", "  No genre data available!");
         }
 
+        String year = movie.getReleaseYear();
+        this.releaseYear = "N/A".equals(year) ? null : year;
+
         this.addedAt = System.currentTimeMillis();
         this.ranked = false;
         this.rankIndex = -1;
@@ -68,9 +73,25 @@ public class MovieListItem {
     public boolean isRanked() { return ranked; }
     public void setRanked(boolean ranked) { this.ranked = ranked; }
 
-    public int getRankIndex() { return rankIndex; }
-    public void setRankIndex(int rankIndex) { this.rankIndex = rankIndex; }
+    public double getRankIndex() { return rankIndex; }
+    public void setRankIndex(double rankIndex) { this.rankIndex = rankIndex; }
+
+    public double getRankNorm() { return rankNorm; }
+    public void setRankNorm(double rankNorm) { this.rankNorm = rankNorm; }
+
+    /**
+     * Scales a list position so rankings from lists of different lengths can be compared.
+     * @param position The 0-based position in the user's ranked list.
+     * @param total The number of ranked movies in the list.
+     * @return The middle of the position's slice of (0, 1); lower is better.
+     */
+    public static double normalizeRank(int position, int total) {
+        return (position + 0.5) / Math.max(1, total);
+    }
 
     public String getGenre() { return genre; }
     public void setGenre(String genre) { this.genre = genre; }
+
+    public String getReleaseYear() { return releaseYear; }
+    public void setReleaseYear(String releaseYear) { this.releaseYear = releaseYear; }
 }
@@ -43,6 +43,14 @@ public class Platform {
      */
     public String getLogo() { return logo; }
 
+    /**
+     * Copies the platform with a logo, for logos that arrive after the platform was resolved.
+     * Platforms are shared through caches, so they are never changed in place.
+     * @param logo The logo URL.
+     * @return A new platform with the same id, name and region.
+     */
+    public Platform withLogo(String logo) { return new Platform(id, name, logo, region); }
+
     /**
      * Gets the region for the platform.
      * @return The region.
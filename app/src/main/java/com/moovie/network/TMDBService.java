@@ -1,5 +1,6 @@
 package com.moovie.network;
 
+import com.moovie.model.GenreListResponse;
 import com.moovie.model.TMDBResponse;
 
 import retrofit2.Call;
@@ -34,4 +35,14 @@ public interface TMDBService {
             @Query("api_key") String apiKey
     );
 
+    /**
+     * Gets the names of TMDB's movie genres.
+     * @param apiKey The TMDB API key.
+     * @return A call to execute the request.
+     */
+    @GET("genre/movie/list")
+    Call<GenreListResponse> getGenres(
+            @Query("api_key") String apiKey
+    );
+
 }
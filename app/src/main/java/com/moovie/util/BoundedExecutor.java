@@ -0,0 +1,221 @@
+package com.moovie.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size worker pool with a bounded queue.
+ *
+ * Tasks may be submitted under a key; submitting a new task with the same key cancels the
+ * previous one if it has not finished yet. Queue depth and task latency are tracked so callers
+ * can see how the pool behaves under load.
+ */
+public class BoundedExecutor {
+
+    private final ThreadPoolExecutor mExecutor;
+
+    // Latest task per key, guarded by itself
+    private final Map<Object, Future<?>> mKeyedTasks = new HashMap<>();
+
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mCancelled = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mTotalRunNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    /**
+     * Constructor for BoundedExecutor.
+     * @param name Prefix used for worker thread names.
+     * @param threads Number of worker threads.
+     * @param queueCapacity Maximum number of tasks waiting for a worker.
+     */
+    public BoundedExecutor(String name, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits a task with no key.
+     * @param task The task to run.
+     * @return The future for the task.
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    public Future<?> submit(Runnable task) {
+        return submit(null, task);
+    }
+
+    /**
+     * Submits a task, cancelling any unfinished task previously submitted under the same key.
+     * @param key The key identifying superseded work, or null.
+     * @param task The task to run.
+     * @return The future for the task.
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    public Future<?> submit(Object key, Runnable task) {
+        TimedTask timed = new TimedTask(key, task);
+        if (key != null) {
+            synchronized (mKeyedTasks) {
+                Future<?> previous = mKeyedTasks.put(key, timed);
+                if (previous != null && previous.cancel(true)) {
+                    mCancelled.incrementAndGet();
+                }
+            }
+        }
+
+        try {
+            mExecutor.execute(timed);
+        } catch (RejectedExecutionException e) {
+            mRejected.incrementAndGet();
+            forget(key, timed);
+            throw e;
+        }
+
+        mSubmitted.incrementAndGet();
+        updateMax(mMaxQueueDepth, mExecutor.getQueue().size());
+        return timed;
+    }
+
+    /**
+     * Cancels the unfinished task submitted under a key, if any.
+     * @param key The key the task was submitted with.
+     * @return true if a task was cancelled.
+     */
+    public boolean cancel(Object key) {
+        if (key == null) return false;
+        Future<?> previous;
+        synchronized (mKeyedTasks) {
+            previous = mKeyedTasks.remove(key);
+        }
+        if (previous != null && previous.cancel(true)) {
+            mCancelled.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of tasks currently waiting for a worker.
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * Gets a snapshot of the executor metrics.
+     * @return The current stats.
+     */
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.queueDepth = mExecutor.getQueue().size();
+        s.maxQueueDepth = mMaxQueueDepth.get();
+        s.activeThreads = mExecutor.getActiveCount();
+        s.submitted = mSubmitted.get();
+        s.completed = mCompleted.get();
+        s.rejected = mRejected.get();
+        s.cancelled = mCancelled.get();
+        long done = Math.max(1, s.completed);
+        s.avgWaitMs = TimeUnit.NANOSECONDS.toMillis(mTotalWaitNanos.get() / done);
+        s.avgRunMs = TimeUnit.NANOSECONDS.toMillis(mTotalRunNanos.get() / done);
+        s.maxWaitMs = TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos.get());
+        return s;
+    }
+
+    private void forget(Object key, Future<?> task) {
+        if (key == null) return;
+        synchronized (mKeyedTasks) {
+            if (mKeyedTasks.get(key) == task) {
+                mKeyedTasks.remove(key);
+            }
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+    }
+
+    /**
+     * Wraps a task to record how long it waited in the queue and how long it ran.
+     */
+    private class TimedTask extends FutureTask<Void> {
+        private final Object key;
+        private final long enqueuedAt = System.nanoTime();
+
+        TimedTask(Object key, Runnable task) {
+            super(task, null);
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            // Superseded while still queued
+            if (isCancelled()) return;
+
+            long startedAt = System.nanoTime();
+            long wait = startedAt - enqueuedAt;
+            mTotalWaitNanos.addAndGet(wait);
+            updateMax(mMaxWaitNanos, wait);
+            try {
+                super.run();
+            } finally {
+                mTotalRunNanos.addAndGet(System.nanoTime() - startedAt);
+                mCompleted.incrementAndGet();
+            }
+        }
+
+        @Override
+        protected void done() {
+            forget(key, this);
+        }
+    }
+
+    /**
+     * Point-in-time view of the executor metrics.
+     */
+    public static class Stats {
+        public int queueDepth;
+        public int maxQueueDepth;
+        public int activeThreads;
+        public long submitted;
+        public long completed;
+        public long rejected;
+        public long cancelled;
+        public long avgWaitMs;
+        public long avgRunMs;
+        public long maxWaitMs;
+
+        @Override
+        public String toString() {
+            return "queue=" + queueDepth + " (max " + maxQueueDepth + "), active=" + activeThreads
+                    + ", submitted=" + submitted + ", completed=" + completed
+                    + ", rejected=" + rejected + ", cancelled=" + cancelled
+                    + ", avgWait=" + avgWaitMs + "ms (max " + maxWaitMs + "ms)"
+                    + ", avgRun=" + avgRunMs + "ms";
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.moovie.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Decides how long API responses may be served from the HTTP cache, and serves them from the
+ * cache alone when the device is offline.
+ *
+ * TMDB sends short or missing cache headers, so responses for configured endpoints are given a
+ * max-age here. Once that expires OkHttp revalidates with the response's ETag or Last-Modified,
+ * and an unchanged resource comes back as a 304 without a body. Offline, or when forced offline,
+ * any cached copy is used however stale; a request that fails on the network also falls back to
+ * the cache.
+ */
+public class CachePolicy {
+
+    // How old a cached response may be when it is the only option
+    private static final int MAX_OFFLINE_STALE_DAYS = 30;
+
+    private static final CacheControl OFFLINE = new CacheControl.Builder()
+            .onlyIfCached()
+            .maxStale(MAX_OFFLINE_STALE_DAYS, TimeUnit.DAYS)
+            .build();
+
+    private final Context appContext;
+
+    // Path suffix -> max-age in seconds, guarded by itself
+    private final Map<String, Long> maxAgeByPath = new LinkedHashMap<>();
+    private volatile boolean forcedOffline;
+
+    /**
+     * Constructor for CachePolicy with the default TMDB staleness windows.
+     * @param ctx Used to check connectivity, or null to always assume the device is online.
+     */
+    public CachePolicy(Context ctx) {
+        this.appContext = ctx != null ? ctx.getApplicationContext() : null;
+        // Only 50 discover pages are ever requested; popularity shifts slowly
+        setMaxAge("discover/movie", TimeUnit.HOURS.toSeconds(12));
+        setMaxAge("search/movie", TimeUnit.HOURS.toSeconds(6));
+        setMaxAge("genre/movie/list", TimeUnit.DAYS.toSeconds(7));
+    }
+
+    /**
+     * Sets how long responses for an endpoint count as fresh.
+     * @param pathSuffix The end of the request path, e.g. "discover/movie".
+     * @param seconds The max-age in seconds; 0 leaves the server's headers alone.
+     */
+    public void setMaxAge(String pathSuffix, long seconds) {
+        synchronized (maxAgeByPath) {
+            if (seconds > 0) maxAgeByPath.put(pathSuffix, seconds);
+            else maxAgeByPath.remove(pathSuffix);
+        }
+    }
+
+    /**
+     * Serves every request from the cache only, without touching the network. Uncached requests
+     * fail with HTTP 504.
+     * @param offline true to stay off the network.
+     */
+    public void setForcedOffline(boolean offline) {
+        forcedOffline = offline;
+    }
+
+    /**
+     * Checks whether the forced-offline mode is on.
+     * @return true if requests are served from the cache only.
+     */
+    public boolean isForcedOffline() {
+        return forcedOffline;
+    }
+
+    /**
+     * Application interceptor that switches GET requests to cache-only when offline and falls back
+     * to the cache when the network fails.
+     * @return The interceptor.
+     */
+    public Interceptor offlineInterceptor() {
+        return chain -> {
+            Request request = chain.request();
+            if (!"GET".equals(request.method())) return chain.proceed(request);
+
+            if (forcedOffline || !isNetworkAvailable()) {
+                return chain.proceed(request.newBuilder().cacheControl(OFFLINE).build());
+            }
+            try {
+                return chain.proceed(request);
+            } catch (IOException e) {
+                if (chain.call().isCanceled()) throw e;
+                Response cached = chain.proceed(request.newBuilder().cacheControl(OFFLINE).build());
+                if (cached.isSuccessful()) return cached;
+                cached.close();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Network interceptor that stamps the configured max-age onto successful and not-modified
+     * responses so the cache stores them.
+     * @return The interceptor.
+     */
+    public Interceptor freshnessInterceptor() {
+        return chain -> {
+            Request request = chain.request();
+            Response response = chain.proceed(request);
+            long maxAge = maxAgeFor(request.url().encodedPath());
+            // A 304's headers are merged into the cached copy, so it gets the same treatment
+            boolean cacheable = response.isSuccessful() || response.code() == 304;
+            if (maxAge <= 0 || !"GET".equals(request.method()) || !cacheable) {
+                return response;
+            }
+            return response.newBuilder()
+                    .removeHeader("Pragma")
+                    .header("Cache-Control", "public, max-age=" + maxAge)
+                    .build();
+        };
+    }
+
+    private long maxAgeFor(String path) {
+        synchronized (maxAgeByPath) {
+            for (Map.Entry<String, Long> e : maxAgeByPath.entrySet()) {
+                if (path.endsWith(e.getKey())) return e.getValue();
+            }
+        }
+        return 0;
+    }
+
+    private boolean isNetworkAvailable() {
+        if (appContext == null) return true;
+        ConnectivityManager cm = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return true;
+        Network network = cm.getActiveNetwork();
+        if (network == null) return false;
+        NetworkCapabilities caps = cm.getNetworkCapabilities(network);
+        return caps != null && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+}
@@ -0,0 +1,445 @@
+package com.moovie.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Applies any number of document updates, working around the 500 writes a WriteBatch allows.
+ *
+ * Up to 500 updates go out as one atomic batch, as before. Larger sets are split into chunks that
+ * are committed a few at a time. Before the first chunk, the updates and the values they replace
+ * are recorded in a journal, and each chunk marks itself done in the same batch that applies it.
+ * If the app dies part way, {@link #resume} finishes the remaining chunks and {@link #rollback}
+ * restores the old values of the applied ones. The journal is deleted once every chunk has landed.
+ *
+ * The journal document only holds the chunk count and progress. Each chunk's updates go in their
+ * own document in its journalChunks subcollection, so no document grows with the size of the
+ * write and none comes near Firestore's 1 MiB document limit; firestore.indexes.json exempts
+ * their ops field from indexing. All of them are written in one batch before the first chunk.
+ *
+ * Values must be plain data; FieldValue sentinels cannot be stored in the journal. Callbacks run
+ * on the main thread, and one journal document tracks one write at a time, so resume any
+ * unfinished write before starting the next one on the same journal.
+ */
+public class ChunkedBatchWriter {
+
+    private static final String TAG = "ChunkedBatchWriter";
+
+    /** Most writes Firestore accepts in one batch. */
+    public static final int MAX_OPS_PER_BATCH = 500;
+
+    // One write of every journaled chunk records its progress
+    private static final int JOURNALED_CHUNK_SIZE = MAX_OPS_PER_BATCH - 1;
+    private static final int MAX_PARALLEL_CHUNKS = 3;
+
+    private static final String CHUNKS = "journalChunks";
+    private static final String FIELD_OPS = "ops";
+    private static final String FIELD_DONE = "done";
+    private static final String FIELD_CHUNK_SIZE = "chunkSize";
+    private static final String FIELD_CHUNK_COUNT = "chunkCount";
+    private static final String FIELD_CREATED_AT = "createdAt";
+    private static final String OP_PATH = "path";
+    private static final String OP_FIELDS = "fields";
+    private static final String OP_PREVIOUS = "previous";
+
+    private final FirebaseFirestore firestore;
+    private final DocumentReference journalRef;
+    private final List<Map<String, Object>> ops = new ArrayList<>();
+    private ChunkListener chunkListener;
+
+    /**
+     * Constructor for ChunkedBatchWriter.
+     * @param firestore The Firestore instance.
+     * @param journalRef Where progress is recorded when the updates need more than one batch.
+     */
+    public ChunkedBatchWriter(FirebaseFirestore firestore, DocumentReference journalRef) {
+        this.firestore = firestore;
+        this.journalRef = journalRef;
+    }
+
+    /**
+     * Gets a journal document under a user's writeJournal collection.
+     * @param firestore The Firestore instance.
+     * @param uid The user's id.
+     * @param name One name per kind of write, e.g. "rankOrder".
+     * @return The journal document.
+     */
+    public static DocumentReference journal(FirebaseFirestore firestore, String uid, String name) {
+        return firestore.collection("users").document(uid).collection("writeJournal").document(name);
+    }
+
+    /**
+     * Queues an update of fields of a document, remembering the snapshot's values for rollback.
+     * @param doc The current snapshot of the document.
+     * @param field The first field to update.
+     * @param value Its new value.
+     * @param moreFieldsAndValues Further field and value pairs.
+     * @return This writer.
+     */
+    public ChunkedBatchWriter update(DocumentSnapshot doc, String field, Object value,
+                                     Object... moreFieldsAndValues) {
+        if (moreFieldsAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Fields and values must come in pairs");
+        }
+        Map<String, Object> fields = new HashMap<>();
+        Map<String, Object> previous = new HashMap<>();
+        fields.put(field, value);
+        previous.put(field, doc.get(field));
+        for (int i = 0; i < moreFieldsAndValues.length; i += 2) {
+            String name = (String) moreFieldsAndValues[i];
+            fields.put(name, moreFieldsAndValues[i + 1]);
+            previous.put(name, doc.get(name));
+        }
+        return update(doc.getReference(), fields, previous);
+    }
+
+    /**
+     * Queues an update of fields of a document.
+     * @param ref The document.
+     * @param fields The fields and their new values.
+     * @param previous The values a rollback restores, or null to leave the document alone then.
+     *                 A null value deletes the field.
+     * @return This writer.
+     */
+    public ChunkedBatchWriter update(DocumentReference ref, Map<String, Object> fields,
+                                     Map<String, Object> previous) {
+        Map<String, Object> op = new HashMap<>();
+        op.put(OP_PATH, ref.getPath());
+        op.put(OP_FIELDS, fields);
+        op.put(OP_PREVIOUS, previous);
+        ops.add(op);
+        return this;
+    }
+
+    /**
+     * Sets a listener told how long each chunk took to commit.
+     * @param listener The listener, or null.
+     * @return This writer.
+     */
+    public ChunkedBatchWriter setChunkListener(ChunkListener listener) {
+        this.chunkListener = listener;
+        return this;
+    }
+
+    /**
+     * Gets the number of queued updates.
+     * @return The number of updates.
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Commits the queued updates.
+     * @return A task completed once every update is applied, or failed with the first error.
+     */
+    public Task<Void> commit() {
+        if (ops.isEmpty()) return Tasks.forResult(null);
+        List<Map<String, Object>> toWrite = new ArrayList<>(ops);
+        ops.clear();
+
+        if (toWrite.size() <= MAX_OPS_PER_BATCH) {
+            // Fits in one atomic batch, nothing to journal
+            return new Run(firestore, null, split(toWrite, MAX_OPS_PER_BATCH), 0, OP_FIELDS,
+                    chunkListener).start();
+        }
+
+        Map<Integer, List<Map<String, Object>>> chunks = split(toWrite, JOURNALED_CHUNK_SIZE);
+        Map<String, Object> journal = new HashMap<>();
+        journal.put(FIELD_DONE, new ArrayList<Long>());
+        journal.put(FIELD_CHUNK_SIZE, JOURNALED_CHUNK_SIZE);
+        journal.put(FIELD_CHUNK_COUNT, chunks.size());
+        journal.put(FIELD_CREATED_AT, FieldValue.serverTimestamp());
+        // One batch, so a journal is never seen without all of its chunks
+        WriteBatch batch = firestore.batch();
+        batch.set(journalRef, journal);
+        for (Map.Entry<Integer, List<Map<String, Object>>> chunk : chunks.entrySet()) {
+            batch.set(chunkRef(journalRef, chunk.getKey()),
+                    Collections.singletonMap(FIELD_OPS, chunk.getValue()));
+        }
+        ChunkListener listener = chunkListener;
+        return batch.commit().continueWithTask(task -> {
+            if (!task.isSuccessful()) return task;
+            return new Run(firestore, journalRef, chunks, chunks.size(), OP_FIELDS, listener)
+                    .start();
+        });
+    }
+
+    /**
+     * Applies the chunks of an interrupted write that had not landed yet.
+     * @param firestore The Firestore instance.
+     * @param journalRef The write's journal.
+     * @param listener Told about each chunk, or null.
+     * @return A task completed once the write is whole; immediately if there is no journal.
+     */
+    public static Task<Void> resume(FirebaseFirestore firestore, DocumentReference journalRef,
+                                    ChunkListener listener) {
+        return journalRef.get().continueWithTask(task -> {
+            DocumentSnapshot journal = task.getResult();
+            if (!journal.exists()) return Tasks.forResult(null);
+            Log.d(TAG, "Resuming " + journalRef.getPath());
+            Set<Integer> done = doneOf(journal);
+            return readChunks(journalRef, journal, done, false).continueWithTask(read ->
+                    new Run(firestore, journalRef, read.getResult(), chunkCountOf(journal), OP_FIELDS,
+                            listener).start());
+        });
+    }
+
+    /**
+     * Restores the previous values of the chunks of an interrupted write that had landed, then
+     * discards its journal.
+     * @param firestore The Firestore instance.
+     * @param journalRef The write's journal.
+     * @return A task completed once the documents are back to how they were.
+     */
+    public static Task<Void> rollback(FirebaseFirestore firestore, DocumentReference journalRef) {
+        return journalRef.get().continueWithTask(task -> {
+            DocumentSnapshot journal = task.getResult();
+            if (!journal.exists()) return Tasks.forResult(null);
+
+            return readChunks(journalRef, journal, doneOf(journal), true).continueWithTask(read -> {
+                List<Map<String, Object>> applied = new ArrayList<>();
+                for (List<Map<String, Object>> chunk : read.getResult().values()) {
+                    for (Map<String, Object> op : chunk) {
+                        if (op.get(OP_PREVIOUS) != null) applied.add(op);
+                    }
+                }
+                Log.d(TAG, "Rolling back " + applied.size() + " updates of " + journalRef.getPath());
+                // Restoring is idempotent, so the journal stays until it has fully succeeded
+                return new Run(firestore, null, split(applied, MAX_OPS_PER_BATCH), 0, OP_PREVIOUS,
+                        null).start()
+                        .continueWithTask(restored -> {
+                            if (!restored.isSuccessful()) return restored;
+                            return deleteJournal(firestore, journalRef, chunkCountOf(journal));
+                        });
+            });
+        });
+    }
+
+    private static Map<Integer, List<Map<String, Object>>> split(List<Map<String, Object>> ops,
+                                                                 int chunkSize) {
+        Map<Integer, List<Map<String, Object>>> chunks = new TreeMap<>();
+        for (int from = 0; from < ops.size(); from += chunkSize) {
+            chunks.put(from / chunkSize,
+                    new ArrayList<>(ops.subList(from, Math.min(ops.size(), from + chunkSize))));
+        }
+        return chunks;
+    }
+
+    private static DocumentReference chunkRef(DocumentReference journalRef, int chunk) {
+        return journalRef.collection(CHUNKS).document(String.valueOf(chunk));
+    }
+
+    /**
+     * Reads a journal's chunks that are, or with done false are not, marked done. Journals from
+     * before the chunks had their own documents keep every update in the journal document.
+     */
+    private static Task<Map<Integer, List<Map<String, Object>>>> readChunks(
+            DocumentReference journalRef, DocumentSnapshot journal, Set<Integer> marked,
+            boolean done) {
+        int count = chunkCountOf(journal);
+        Map<Integer, List<Map<String, Object>>> chunks = new TreeMap<>();
+        List<Map<String, Object>> legacy = opsOf(journal);
+        if (!legacy.isEmpty()) {
+            for (Map.Entry<Integer, List<Map<String, Object>>> chunk
+                    : split(legacy, chunkSizeOf(journal)).entrySet()) {
+                if (marked.contains(chunk.getKey()) == done) {
+                    chunks.put(chunk.getKey(), chunk.getValue());
+                }
+            }
+            return Tasks.forResult(chunks);
+        }
+
+        List<Task<DocumentSnapshot>> reads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (marked.contains(i) == done) reads.add(chunkRef(journalRef, i).get());
+        }
+        return Tasks.whenAllSuccess(reads).continueWith(task -> {
+            for (Object result : task.getResult()) {
+                DocumentSnapshot chunk = (DocumentSnapshot) result;
+                chunks.put(Integer.parseInt(chunk.getId()), opsOf(chunk));
+            }
+            return chunks;
+        });
+    }
+
+    // The chunk documents and the journal itself, in one batch
+    private static Task<Void> deleteJournal(FirebaseFirestore firestore,
+                                            DocumentReference journalRef, int chunkCount) {
+        WriteBatch batch = firestore.batch();
+        for (int i = 0; i < chunkCount; i++) {
+            batch.delete(chunkRef(journalRef, i));
+        }
+        batch.delete(journalRef);
+        return batch.commit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> opsOf(DocumentSnapshot doc) {
+        Object ops = doc.get(FIELD_OPS);
+        return ops instanceof List ? (List<Map<String, Object>>) ops : new ArrayList<>();
+    }
+
+    private static int chunkSizeOf(DocumentSnapshot journal) {
+        Long size = journal.getLong(FIELD_CHUNK_SIZE);
+        return size != null && size > 0 ? size.intValue() : JOURNALED_CHUNK_SIZE;
+    }
+
+    private static int chunkCountOf(DocumentSnapshot journal) {
+        Long count = journal.getLong(FIELD_CHUNK_COUNT);
+        return count != null && count > 0 ? count.intValue() : 0;
+    }
+
+    private static Set<Integer> doneOf(DocumentSnapshot journal) {
+        Set<Integer> done = new HashSet<>();
+        Object list = journal.get(FIELD_DONE);
+        if (list instanceof List) {
+            for (Object o : (List<?>) list) {
+                if (o instanceof Number) done.add(((Number) o).intValue());
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Commits the chunks of one write, at most MAX_PARALLEL_CHUNKS at a time. Driven entirely by
+     * main-thread task callbacks, so its state needs no locking.
+     */
+    private static final class Run {
+        private final FirebaseFirestore firestore;
+        private final DocumentReference journalRef;
+        private final Map<Integer, List<Map<String, Object>>> chunks;
+        private final String valuesKey;
+        private final int chunkCount;
+        private final ChunkListener listener;
+
+        private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+        private final TaskCompletionSource<Void> result = new TaskCompletionSource<>();
+        private int inFlight;
+        private Exception failure;
+
+        /**
+         * @param chunks The chunks still to apply, by chunk number.
+         * @param chunkCount How many chunk documents the journal has, to delete at the end.
+         */
+        Run(FirebaseFirestore firestore, DocumentReference journalRef,
+            Map<Integer, List<Map<String, Object>>> chunks, int chunkCount, String valuesKey,
+            ChunkListener listener) {
+            this.firestore = firestore;
+            this.journalRef = journalRef;
+            this.chunks = chunks;
+            this.chunkCount = chunkCount;
+            this.valuesKey = valuesKey;
+            this.listener = listener;
+            pending.addAll(chunks.keySet());
+        }
+
+        Task<Void> start() {
+            if (pending.isEmpty()) {
+                finish();
+            } else {
+                pump();
+            }
+            return result.getTask();
+        }
+
+        private void pump() {
+            while (failure == null && inFlight < MAX_PARALLEL_CHUNKS && !pending.isEmpty()) {
+                int chunk = pending.poll();
+                List<Map<String, Object>> chunkOps = chunks.get(chunk);
+                int writes = chunkOps.size();
+
+                WriteBatch batch = firestore.batch();
+                for (Map<String, Object> op : chunkOps) {
+                    apply(batch, op);
+                }
+                if (journalRef != null) {
+                    batch.update(journalRef, FIELD_DONE, FieldValue.arrayUnion(chunk));
+                }
+
+                inFlight++;
+                long start = SystemClock.elapsedRealtime();
+                batch.commit().addOnCompleteListener(task -> {
+                    inFlight--;
+                    long latencyMs = SystemClock.elapsedRealtime() - start;
+                    if (task.isSuccessful()) {
+                        Log.d(TAG, "Chunk " + chunk + " (" + writes + " writes) took " + latencyMs + "ms");
+                        if (listener != null) listener.onChunkCommitted(chunk, writes, latencyMs);
+                    } else if (failure == null) {
+                        Log.w(TAG, "Chunk " + chunk + " failed after " + latencyMs + "ms", task.getException());
+                        failure = task.getException();
+                    }
+
+                    if (failure != null) {
+                        // Let chunks already sent settle so the journal reflects them
+                        if (inFlight == 0) result.setException(failure);
+                    } else if (pending.isEmpty() && inFlight == 0) {
+                        finish();
+                    } else {
+                        pump();
+                    }
+                });
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void apply(WriteBatch batch, Map<String, Object> op) {
+            Map<String, Object> values = (Map<String, Object>) op.get(valuesKey);
+            if (values == null || values.isEmpty()) return;
+            Map<String, Object> update = new HashMap<>(values);
+            if (OP_PREVIOUS.equals(valuesKey)) {
+                // The field did not exist before the write
+                for (Map.Entry<String, Object> e : update.entrySet()) {
+                    if (e.getValue() == null) e.setValue(FieldValue.delete());
+                }
+            }
+            batch.update(firestore.document((String) op.get(OP_PATH)), update);
+        }
+
+        private void finish() {
+            if (journalRef == null) {
+                result.setResult(null);
+                return;
+            }
+            deleteJournal(firestore, journalRef, chunkCount).addOnCompleteListener(task -> {
+                if (!task.isSuccessful()) {
+                    // Every chunk is marked done, so a later resume only deletes it
+                    Log.w(TAG, "Could not delete journal " + journalRef.getPath(), task.getException());
+                }
+                result.setResult(null);
+            });
+        }
+    }
+
+    /**
+     * Receives per-chunk commit timings.
+     */
+    public interface ChunkListener {
+        /**
+         * Called when a chunk has been committed.
+         * @param chunk The chunk's 0-based number.
+         * @param writes How many updates it applied.
+         * @param latencyMs How long the commit took.
+         */
+        void onChunkCommitted(int chunk, int writes, long latencyMs);
+    }
+}
@@ -19,6 +19,7 @@ import com.firebase.ui.auth.AuthUI;
 import com.google.firebase.BuildConfig;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.functions.FirebaseFunctions;
 
 /**
  * Utility class for initializing Firebase services and connecting them to the Firebase Emulator
@@ -32,6 +33,7 @@ public class FirebaseUtil {
     private static FirebaseFirestore FIRESTORE;
     private static FirebaseAuth AUTH;
     private static AuthUI AUTH_UI;
+    private static FirebaseFunctions FUNCTIONS;
 
     /**
      * Gets the FirebaseFirestore instance.
@@ -87,4 +89,22 @@ public class FirebaseUtil {
         return AUTH_UI;
     }
 
+    /**
+     * Gets the FirebaseFunctions instance.
+     * @return The FirebaseFunctions instance.
+     */
+    public static FirebaseFunctions getFunctions() {
+        if (FUNCTIONS == null) {
+            FUNCTIONS = FirebaseFunctions.getInstance();
+
+            // Connect to the Cloud Functions emulator when appropriate. The host '10.0.2.2' is a
+            // special IP address to let the Android emulator connect to 'localhost'.
+            if (sUseEmulators) {
+                FUNCTIONS.useEmulator("10.0.2.2", 5001);
+            }
+        }
+
+        return FUNCTIONS;
+    }
+
 }
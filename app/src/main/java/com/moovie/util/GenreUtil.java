@@ -1,16 +1,24 @@
 package com.moovie.util;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Utility class for converting TMDB genre IDs to genre names.
+ *
+ * Names come from TMDB's genre list once CatalogMetadataRepository has it, and from the built-in
+ * table below until then.
  */
 public class GenreUtil {
 
     private static final Map<Integer, String> GENRE_MAP = new HashMap<>();
 
+    // TMDB's current list, replacing GENRE_MAP when set
+    private static volatile Map<Integer, String> sCatalogGenres = Collections.emptyMap();
+
     static {
         // TMDB Genre IDs to Names
         GENRE_MAP.put(28, "Action");
@@ -40,7 +48,25 @@ public class GenreUtil {
      * @return The genre name, or "Unknown" if not found.
      */
     public static String getGenreName(int genreId) {
-        return GENRE_MAP.getOrDefault(genreId, "Unknown");
+        String name = sCatalogGenres.get(genreId);
+        return name != null ? name : GENRE_MAP.getOrDefault(genreId, "Unknown");
+    }
+
+    /**
+     * Get the names of all known genres
+     * @return Every genre name, in no particular order.
+     */
+    public static Collection<String> getGenreNames() {
+        Map<Integer, String> catalog = sCatalogGenres;
+        return catalog.isEmpty() ? GENRE_MAP.values() : catalog.values();
+    }
+
+    /**
+     * Replace the built-in genre names with TMDB's current list
+     * @param genres Genre IDs to names; an empty map restores the built-in table.
+     */
+    public static void setGenres(Map<Integer, String> genres) {
+        sCatalogGenres = Collections.unmodifiableMap(new HashMap<>(genres));
     }
 
     /**
@@ -0,0 +1,108 @@
+package com.moovie.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The app-wide HTTP stack every API client is built from.
+ *
+ * Clients derived with {@link OkHttpClient#newBuilder()} share one connection pool, dispatcher
+ * and response cache, so TMDB and Watchmode requests reuse warm TLS connections and HTTP/2
+ * streams instead of each client handshaking on its own. OkHttp requests gzip and decompresses
+ * it transparently.
+ */
+public final class HttpClients {
+
+    private static final String CACHE_DIR = "http";
+    private static final long CACHE_SIZE_BYTES = 20L * 1024 * 1024;
+
+    // Idle connections kept warm for the detail and search screens
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final int MAX_REQUESTS = 32;
+    private static final int MAX_REQUESTS_PER_HOST = 6;
+
+    private static final long CONNECT_TIMEOUT_S = 10;
+    private static final long READ_TIMEOUT_S = 20;
+
+    private static OkHttpClient shared;
+    private static CachePolicy cachePolicy;
+
+    private HttpClients() {
+        // prevent instantiation
+    }
+
+    /**
+     * Builds the shared client with a response cache in the app's cache directory, kept fresh
+     * according to a {@link CachePolicy}. Call once from Application.onCreate, before any API
+     * client is used; later calls are no-ops.
+     * @param ctx Any context.
+     */
+    public static synchronized void init(Context ctx) {
+        if (shared != null) return;
+        File dir = new File(ctx.getApplicationContext().getCacheDir(), CACHE_DIR);
+        cachePolicy = new CachePolicy(ctx);
+        shared = build(new Cache(dir, CACHE_SIZE_BYTES), cachePolicy);
+    }
+
+    /**
+     * Gets the shared client. If {@link #init(Context)} has not run, a client without a response
+     * cache is created and shared instead.
+     * @return The shared client.
+     */
+    public static synchronized OkHttpClient get() {
+        if (shared == null) {
+            cachePolicy = new CachePolicy(null);
+            shared = build(null, cachePolicy);
+        }
+        return shared;
+    }
+
+    /**
+     * Gets the policy deciding cache freshness per endpoint and the forced-offline mode.
+     * @return The shared cache policy.
+     */
+    public static synchronized CachePolicy getCachePolicy() {
+        get();
+        return cachePolicy;
+    }
+
+    /**
+     * Gets the response cache counters.
+     * @return A readable summary of requests served from the network and from the cache.
+     */
+    public static synchronized String getCacheStats() {
+        Cache cache = get().cache();
+        if (cache == null) return "no cache";
+        return "requests=" + cache.requestCount() + ", network=" + cache.networkCount()
+                + ", hits=" + cache.hitCount();
+    }
+
+    private static OkHttpClient build(Cache cache, CachePolicy policy) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .cache(cache)
+                .addInterceptor(policy.offlineInterceptor())
+                .addNetworkInterceptor(policy.freshnessInterceptor())
+                .connectTimeout(CONNECT_TIMEOUT_S, TimeUnit.SECONDS)
+                .readTimeout(READ_TIMEOUT_S, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+}
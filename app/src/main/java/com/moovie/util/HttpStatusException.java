@@ -0,0 +1,62 @@
+package com.moovie.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an HTTP request completes with a non-successful status code.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int code;
+    private final long retryAfterMs;
+
+    /**
+     * Constructor for HttpStatusException.
+     * @param code The HTTP status code.
+     * @param retryAfterMs The server's Retry-After delay in milliseconds, or -1 if none was sent.
+     * @param message The detail message.
+     */
+    public HttpStatusException(int code, long retryAfterMs, String message) {
+        super(message);
+        this.code = code;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Gets the HTTP status code.
+     * @return The status code.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the Retry-After delay sent with the response.
+     * @return The delay in milliseconds, or -1 if none was sent.
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * Checks whether the server rejected the request for exceeding its rate limit.
+     * @return true for HTTP 429.
+     */
+    public boolean isRateLimited() {
+        return code == 429;
+    }
+
+    /**
+     * Parses a Retry-After header given in seconds.
+     * @param header The header value, possibly null.
+     * @return The delay in milliseconds, or -1 if absent or not a number of seconds.
+     */
+    public static long parseRetryAfter(String header) {
+        if (header == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(header.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.moovie.util;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts image loads by where Glide found them, registered as a global request listener.
+ *
+ * A healthy list scroll is served mostly from the memory cache; REMOTE loads are downloads. The
+ * poster sizes requested are counted too, to show what the size buckets actually pick.
+ */
+public class ImageLoadStats implements RequestListener<Object> {
+
+    private static final String TAG = "ImageLoadStats";
+
+    // Logs a summary every this many loads
+    private static final int LOG_EVERY = 100;
+
+    private static final ImageLoadStats sInstance = new ImageLoadStats();
+
+    private final AtomicLongArray bySource = new AtomicLongArray(DataSource.values().length);
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    // Poster size -> URLs built, guarded by itself
+    private final Map<String, Long> posterSizes = new TreeMap<>();
+
+    /**
+     * Gets the shared stats.
+     * @return The stats.
+     */
+    public static ImageLoadStats getInstance() {
+        return sInstance;
+    }
+
+    private ImageLoadStats() {
+    }
+
+    @Override
+    public boolean onResourceReady(Object resource, Object model, Target<Object> target,
+                                   DataSource dataSource, boolean isFirstResource) {
+        bySource.incrementAndGet(dataSource.ordinal());
+        if (loads.incrementAndGet() % LOG_EVERY == 0) Log.d(TAG, getStats());
+        return false;
+    }
+
+    @Override
+    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Object> target,
+                                boolean isFirstResource) {
+        failures.incrementAndGet();
+        Log.w(TAG, "Load failed for " + model, e);
+        return false;
+    }
+
+    void recordPosterSize(String size) {
+        synchronized (posterSizes) {
+            Long count = posterSizes.get(size);
+            posterSizes.put(size, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Gets the counters.
+     * @return A readable summary of loads per data source, failures and poster sizes requested.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (DataSource source : DataSource.values()) {
+            sb.append(source.name()).append('=').append(bySource.get(source.ordinal())).append(", ");
+        }
+        sb.append("failed=").append(failures.get());
+        synchronized (posterSizes) {
+            sb.append(", posterSizes=").append(posterSizes);
+        }
+        return sb.toString();
+    }
+}
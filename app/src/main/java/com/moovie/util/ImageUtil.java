@@ -1,20 +1,63 @@
 package com.moovie.util;
 
+import android.content.Context;
+
 /**
  * Utility class for handling image URLs.
+ *
+ * TMDB serves each poster in a fixed set of widths. Posters loaded through Glide as a
+ * {@link TmdbPoster} get the smallest width that still covers the view they are drawn into, so a
+ * list thumbnail no longer downloads and decodes a detail-screen sized image.
  */
 public class ImageUtil {
-    public static final String IMAGE_BASE_URL = "https://image.tmdb.org/t/p/w500";
+    public static final String IMAGE_BASE_URL = "https://image.tmdb.org/t/p/";
+
+    // TMDB's poster widths, smallest first. "original" is left out: it can be several megabytes,
+    // and w780 already fills a phone screen's poster backdrop
+    private static final String[] POSTER_SIZES = {"w92", "w154", "w185", "w342", "w500", "w780"};
+    private static final int[] POSTER_WIDTHS = {92, 154, 185, 342, 500, 780};
+
+    // Used when the target size is unknown
+    private static final String DEFAULT_SIZE = "w500";
+
+    // Posters are 2:3, so a centre-cropped view can need more width than it has
+    private static final double POSTER_ASPECT = 2.0 / 3.0;
 
     /**
-     * Builds a full image URL from a poster path.
+     * Picks the smallest TMDB poster size that covers a view.
+     * @param width The view width in pixels, or 0 or less if unknown.
+     * @param height The view height in pixels, or 0 or less if unknown.
+     * @return A size such as "w185", the largest size if none covers the view, or the default
+     *         size if neither dimension is known.
+     */
+    public static String posterSizeFor(int width, int height) {
+        int needed = Math.max(width, height > 0 ? (int) Math.ceil(height * POSTER_ASPECT) : 0);
+        if (needed <= 0) return DEFAULT_SIZE;
+        for (int i = 0; i < POSTER_WIDTHS.length; i++) {
+            if (POSTER_WIDTHS[i] >= needed) return POSTER_SIZES[i];
+        }
+        return POSTER_SIZES[POSTER_SIZES.length - 1];
+    }
+
+    /**
+     * Wraps a poster path for loading through Glide, which picks its size from the target view.
      * @param posterPath The poster path from TMDB.
-     * @return The full image URL, or null if the path is invalid.
+     * @return The model to pass to Glide's load, or null if the path is invalid.
      */
-    public static String buildImageUrl(String posterPath) {
+    public static TmdbPoster poster(String posterPath) {
         if (posterPath == null || posterPath.isEmpty()) {
             return null;
         }
-        return IMAGE_BASE_URL + posterPath;
+        return new TmdbPoster(posterPath);
+    }
+
+    /**
+     * Converts density-independent pixels to pixels.
+     * @param ctx Any context.
+     * @param dp The length in dp.
+     * @return The length in pixels for the screen's density.
+     */
+    public static int dpToPx(Context ctx, int dp) {
+        return Math.round(dp * ctx.getResources().getDisplayMetrics().density);
     }
 }
@@ -0,0 +1,60 @@
+package com.moovie.util;
+
+import java.util.List;
+
+/**
+ * Sparse sort keys for a user's ranked list, stored in rankIndex.
+ *
+ * Keys only have to sort in list order, so a movie inserted or dragged between two others takes
+ * the midpoint of their keys and nothing else is rewritten. Keys may be negative: an item
+ * placed at the front goes a step below the first key, so lists that were ranked with dense
+ * 0, 1, 2... indices stay valid without a rewrite. When repeated inserts at one spot leave no
+ * room between two keys, the whole list is rebalanced to evenly spaced keys. The dense position
+ * used for display and ratings is the key's index in the sorted list.
+ *
+ * Normalized ranks (rankNorm) still depend on the list length. The app writes only the placed
+ * item's; the drainRankNorms cloud function rewrites the others once they have drifted.
+ */
+public final class RankKeys {
+
+    /** Spacing between keys after a rebalance, and when adding to either end. */
+    public static final double STEP = 1024;
+
+    // Below this gap midpoints stop being distinguishable enough to trust
+    private static final double MIN_GAP = 1e-6;
+
+    private RankKeys() {
+        // prevent instantiation
+    }
+
+    /**
+     * Picks the key for an item placed at a position among existing keys.
+     * @param keys The keys of the other items, in ascending order.
+     * @param position Where the item goes, 0 for the front and keys.size() for the end.
+     * @return The new key, or NaN if there is no room and the list must be rebalanced.
+     */
+    public static double keyForInsert(List<Double> keys, int position) {
+        if (keys.isEmpty()) return STEP;
+        if (position <= 0) {
+            return keys.get(0) - STEP;
+        }
+        if (position >= keys.size()) {
+            return keys.get(keys.size() - 1) + STEP;
+        }
+        return between(keys.get(position - 1), keys.get(position));
+    }
+
+    /**
+     * Gets the evenly spaced key a rebalance assigns to a position.
+     * @param position The 0-based position in the list.
+     * @return The key.
+     */
+    public static double rebalancedKey(int position) {
+        return (position + 1) * STEP;
+    }
+
+    private static double between(double before, double after) {
+        if (after - before < MIN_GAP) return Double.NaN;
+        return before + (after - before) / 2;
+    }
+}
@@ -0,0 +1,266 @@
+package com.moovie.util;
+
+/**
+ * Chooses which ranked movie to compare a new one against, asking as few better/worse questions
+ * as it can.
+ *
+ * A plain binary search spends about log2(n) questions on every insert. Here each insert position
+ * gets a prior probability, from where other users placed the movie and where the user's movies
+ * of the same genre sit. Every question splits the remaining probability in half instead of the
+ * remaining positions, so a good guess needs fewer questions and a bad one costs little more than
+ * binary search, because part of the prior is always spread evenly. Answers rule positions out for
+ * certain, and by default questioning only stops once one position is left, so every movie lands
+ * exactly where the user's answers put it.
+ *
+ * That default does not reach the goal of 30% fewer questions: on simulated users it saves about
+ * 3%, because personal taste keeps the guesses loose and most of a list's positions still need
+ * telling apart. Only approximate placement, which is opt-in, gets there: it also stops once
+ * nearly all remaining probability sits within a small tolerance of the median. That saves about
+ * a third of the questions, but places only about a third of movies exactly; the rest land a
+ * position or so away from where the user would have put them.
+ *
+ * Positions are insert positions: 0 puts the new movie first, size puts it last. Pure Java, so
+ * RankingEngineTest can measure it off-device.
+ */
+public class RankingEngine {
+
+    /** With approximate placement, how sure the engine must be to stop with positions left. */
+    public static final double APPROXIMATE_CONFIDENCE = 0.9;
+    /** With approximate placement, how far off the result may be, as a fraction of the list. */
+    public static final double APPROXIMATE_TOLERANCE = 0.02;
+
+    // Share of the prior spread evenly, which bounds the cost of a wrong guess
+    private static final double UNIFORM_SHARE = 0.2;
+
+    private final double[] mass;
+    private int tolerance;
+    private double confidence;
+
+    private int low;
+    private int high;
+    private int pivot = -1;
+    private int comparisons;
+
+    /**
+     * Constructor for RankingEngine that always finds the exact position.
+     * @param size The number of movies already ranked.
+     * @param prior Where the new movie is expected to go.
+     */
+    public RankingEngine(int size, Prior prior) {
+        this(size, prior, 1, 0);
+    }
+
+    /**
+     * Constructor for RankingEngine.
+     * @param size The number of movies already ranked.
+     * @param prior Where the new movie is expected to go.
+     * @param confidence Probability required to stop early; 1 or more always finds the exact spot.
+     * @param tolerance Fraction of the list the result may be off by when stopping early.
+     */
+    public RankingEngine(int size, Prior prior, double confidence, double tolerance) {
+        this.mass = new double[size + 1];
+        setStopRule(confidence, tolerance);
+        this.low = 0;
+        this.high = size;
+
+        double mean = prior.getMean();
+        double spread = prior.getSpread();
+        double guessTotal = 0;
+        for (int p = 0; p <= size; p++) {
+            if (Double.isNaN(mean)) break;
+            double z = (normalize(p, size) - mean) / spread;
+            mass[p] = Math.exp(-0.5 * z * z);
+            guessTotal += mass[p];
+        }
+        double guessShare = guessTotal > 0 ? 1 - UNIFORM_SHARE : 0;
+        for (int p = 0; p <= size; p++) {
+            double guess = guessTotal > 0 ? mass[p] / guessTotal : 0;
+            mass[p] = guessShare * guess + (1 - guessShare) / (size + 1);
+        }
+    }
+
+    /**
+     * Changes when questioning stops. Takes effect from the next {@link #isDone()}.
+     * @param confidence Probability required to stop early; 1 or more always finds the exact spot.
+     * @param tolerance Fraction of the list the result may be off by when stopping early.
+     */
+    public void setStopRule(double confidence, double tolerance) {
+        this.confidence = confidence;
+        this.tolerance = (int) Math.floor((mass.length - 1) * tolerance);
+    }
+
+    /**
+     * Sets whether the engine may stop before the exact position is known.
+     * @param approximate true to stop early with {@link #APPROXIMATE_CONFIDENCE} and
+     *                    {@link #APPROXIMATE_TOLERANCE}, false to always find the exact spot.
+     */
+    public void setApproximate(boolean approximate) {
+        if (approximate) {
+            setStopRule(APPROXIMATE_CONFIDENCE, APPROXIMATE_TOLERANCE);
+        } else {
+            setStopRule(1, 0);
+        }
+    }
+
+    /**
+     * Checks whether the position is settled.
+     * @return true if no more questions are needed.
+     */
+    public boolean isDone() {
+        if (low >= high) return true;
+        if (comparisons == 0 || confidence >= 1) return false;
+        int median = median();
+        double near = 0;
+        for (int p = Math.max(low, median - tolerance); p <= Math.min(high, median + tolerance); p++) {
+            near += mass[p];
+        }
+        return near >= confidence * remaining();
+    }
+
+    /**
+     * Picks the next movie to compare against.
+     * @return The index, in the ranked list, of the movie to ask about.
+     */
+    public int nextComparison() {
+        if (isDone()) throw new IllegalStateException("Ranking is already settled");
+        // The movie at index m separates positions <= m from positions > m
+        pivot = Math.min(median(), high - 1);
+        return pivot;
+    }
+
+    /**
+     * Records the answer to the last comparison.
+     * @param better true if the new movie is better than the one asked about.
+     */
+    public void answer(boolean better) {
+        if (pivot < 0) throw new IllegalStateException("No comparison pending");
+        if (better) {
+            high = pivot;
+        } else {
+            low = pivot + 1;
+        }
+        pivot = -1;
+        comparisons++;
+    }
+
+    /**
+     * Gets where the new movie goes.
+     * @return The insert position: the exact one when settled, the likeliest one otherwise.
+     */
+    public int getPosition() {
+        return low >= high ? low : median();
+    }
+
+    /**
+     * Gets the number of questions answered so far.
+     * @return The number of comparisons.
+     */
+    public int getComparisons() {
+        return comparisons;
+    }
+
+    // Normalized rank of an insert position once the list has grown by one
+    private static double normalize(int position, int size) {
+        return (position + 0.5) / (size + 1);
+    }
+
+    private double remaining() {
+        double total = 0;
+        for (int p = low; p <= high; p++) total += mass[p];
+        return total;
+    }
+
+    // First position at which the remaining probability reaches one half
+    private int median() {
+        double half = remaining() / 2;
+        double sum = 0;
+        for (int p = low; p <= high; p++) {
+            sum += mass[p];
+            if (sum >= half) return p;
+        }
+        return high;
+    }
+
+    /**
+     * A guess at where a new movie falls in the user's list, as a normalized rank from 0 (best)
+     * to 1 (worst). Combines where other users put the movie with where the user's movies of the
+     * same genre sit, the genre average counting for less when it covers few movies.
+     */
+    public static class Prior {
+
+        // Expected miss of a single estimate
+        private static final double DEFAULT_SPREAD = 0.3;
+        private static final double MIN_SPREAD = 0.03;
+        // The two estimates' errors are not independent, so the combined spread is widened
+        private static final double SPREAD_INFLATION = 1.2;
+
+        private double globalNorm = Double.NaN;
+        private double genreNorm = Double.NaN;
+        private int genreCount;
+
+        /**
+         * Sets where other users put the movie on average.
+         * @param norm The movie's avgRankNorm, from 0 (best) to 1 (worst), or NaN if unknown.
+         * @return This prior.
+         */
+        public Prior setGlobalNorm(double norm) {
+            this.globalNorm = norm;
+            return this;
+        }
+
+        /**
+         * Sets where the user's ranked movies of the same genre sit on average.
+         * @param norm Their mean normalized rank, or NaN if there are none.
+         * @param count How many there are.
+         * @return This prior.
+         */
+        public Prior setGenreNorm(double norm, int count) {
+            this.genreNorm = count > 0 ? norm : Double.NaN;
+            this.genreCount = count;
+            return this;
+        }
+
+        /**
+         * Gets the expected normalized rank.
+         * @return The guess, or NaN if nothing is known.
+         */
+        public double getMean() {
+            double weightSum = 0;
+            double sum = 0;
+            if (!Double.isNaN(globalNorm)) {
+                double w = 1 / globalVariance();
+                sum += w * globalNorm;
+                weightSum += w;
+            }
+            if (!Double.isNaN(genreNorm)) {
+                double w = 1 / genreVariance();
+                sum += w * genreNorm;
+                weightSum += w;
+            }
+            if (weightSum == 0) return Double.NaN;
+            return Math.max(0, Math.min(1, sum / weightSum));
+        }
+
+        /**
+         * Gets how far off the guess is expected to be, in normalized rank.
+         * @return The standard deviation of the guess.
+         */
+        public double getSpread() {
+            double precision = 0;
+            if (!Double.isNaN(globalNorm)) precision += 1 / globalVariance();
+            if (!Double.isNaN(genreNorm)) precision += 1 / genreVariance();
+            if (precision == 0) return DEFAULT_SPREAD;
+            return Math.max(MIN_SPREAD, SPREAD_INFLATION / Math.sqrt(precision));
+        }
+
+        private double globalVariance() {
+            return DEFAULT_SPREAD * DEFAULT_SPREAD;
+        }
+
+        private double genreVariance() {
+            // A genre average over few movies is a rough guess
+            double spread = DEFAULT_SPREAD * (1 + 1.0 / genreCount);
+            return spread * spread;
+        }
+    }
+}
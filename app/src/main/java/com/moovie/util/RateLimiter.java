@@ -0,0 +1,166 @@
+package com.moovie.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter with two priority lanes.
+ *
+ * Permits refill at a steady rate up to a burst capacity. While a foreground caller is waiting,
+ * background callers are held back so user-facing requests always get the next permit. The
+ * bucket can also be paused outright, e.g. when the server says its quota was exceeded.
+ */
+public class RateLimiter {
+
+    /**
+     * Who is asking for a permit.
+     */
+    public enum Lane {
+        /** Work the user is waiting on, such as the detail screen. */
+        FOREGROUND,
+        /** Prefetching and batch work that can wait. */
+        BACKGROUND
+    }
+
+    // How often a held-back background caller rechecks the foreground lane
+    private static final long LANE_POLL_MS = 50;
+
+    private final double capacity;
+    private final double permitsPerMs;
+
+    // All guarded by this
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+    private int waitingForeground;
+
+    private long acquiredForeground;
+    private long acquiredBackground;
+    private long throttled;
+    private long totalWaitMs;
+    private long pauses;
+
+    /**
+     * Constructor for RateLimiter. The bucket starts full.
+     * @param permitsPerSecond The steady refill rate.
+     * @param burst The maximum number of permits that can be taken back to back.
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.capacity = burst;
+        this.permitsPerMs = permitsPerSecond / 1000d;
+        this.tokens = burst;
+        this.lastRefill = now();
+    }
+
+    /**
+     * Blocks until a permit is available for the lane, then takes it.
+     * @param lane The caller's lane.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public synchronized void acquire(Lane lane) throws InterruptedException {
+        boolean foreground = lane == Lane.FOREGROUND;
+        if (foreground) waitingForeground++;
+        long startedAt = now();
+        boolean waited = false;
+        try {
+            while (true) {
+                refill();
+                long now = now();
+                boolean heldBack = !foreground && waitingForeground > 0;
+                if (!heldBack && now >= pausedUntil && tokens >= 1) {
+                    tokens -= 1;
+                    break;
+                }
+
+                long waitMs;
+                if (now < pausedUntil) {
+                    waitMs = pausedUntil - now;
+                } else if (heldBack) {
+                    waitMs = LANE_POLL_MS;
+                } else {
+                    waitMs = (long) Math.ceil((1 - tokens) / permitsPerMs);
+                }
+                waited = true;
+                wait(Math.max(1, waitMs));
+            }
+        } finally {
+            if (foreground) {
+                waitingForeground--;
+                // Let held-back background callers look again
+                notifyAll();
+            }
+        }
+
+        if (foreground) acquiredForeground++;
+        else acquiredBackground++;
+        if (waited) {
+            throttled++;
+            totalWaitMs += now() - startedAt;
+        }
+    }
+
+    /**
+     * Stops handing out permits until the given delay has passed. A shorter pause never cuts an
+     * existing one short.
+     * @param delayMs How long to pause, in milliseconds.
+     */
+    public synchronized void pause(long delayMs) {
+        long until = now() + delayMs;
+        if (until > pausedUntil) {
+            pausedUntil = until;
+            pauses++;
+        }
+        // The bucket is empty as far as the server is concerned
+        tokens = 0;
+        lastRefill = now();
+        notifyAll();
+    }
+
+    /**
+     * Gets a snapshot of the limiter counters.
+     * @return The current stats.
+     */
+    public synchronized Stats getStats() {
+        refill();
+        Stats s = new Stats();
+        s.tokens = tokens;
+        s.acquiredForeground = acquiredForeground;
+        s.acquiredBackground = acquiredBackground;
+        s.throttled = throttled;
+        s.avgThrottleMs = throttled == 0 ? 0 : totalWaitMs / throttled;
+        s.pauses = pauses;
+        s.pausedForMs = Math.max(0, pausedUntil - now());
+        return s;
+    }
+
+    private void refill() {
+        long now = now();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerMs);
+        lastRefill = now;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Point-in-time view of the limiter counters.
+     */
+    public static class Stats {
+        public double tokens;
+        public long acquiredForeground;
+        public long acquiredBackground;
+        public long throttled;
+        public long avgThrottleMs;
+        public long pauses;
+        public long pausedForMs;
+
+        @Override
+        public String toString() {
+            return "tokens=" + String.format(Locale.US, "%.1f", tokens)
+                    + ", acquired=" + acquiredForeground + " fg/" + acquiredBackground + " bg"
+                    + ", throttled=" + throttled + " (avg " + avgThrottleMs + "ms)"
+                    + ", pauses=" + pauses + ", pausedFor=" + pausedForMs + "ms";
+        }
+    }
+}
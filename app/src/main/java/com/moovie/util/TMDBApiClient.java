@@ -11,13 +11,14 @@ public class TMDBApiClient {
     private static Retrofit retrofit = null;
 
     /**
-     * Gets the Retrofit client instance.
+     * Gets the Retrofit client instance, backed by the shared HTTP stack.
      * @return The Retrofit client.
      */
     public static Retrofit getClient() {
         if (retrofit == null) {
             retrofit = new Retrofit.Builder()
                     .baseUrl(BASE_URL)
+                    .client(HttpClients.get())
                     .addConverterFactory(GsonConverterFactory.create())
                     .build();
         }
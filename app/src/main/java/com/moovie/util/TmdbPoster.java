@@ -0,0 +1,92 @@
+package com.moovie.util;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelCache;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.BaseGlideUrlLoader;
+
+import java.io.InputStream;
+
+/**
+ * A TMDB poster path, as a Glide model.
+ *
+ * Glide asks its loader for a URL once it knows the target size, so the poster size is chosen
+ * per view rather than fixed. Each size is a separate URL, and so a separate disk cache entry.
+ */
+public final class TmdbPoster {
+
+    private final String path;
+
+    /**
+     * Constructor for TmdbPoster.
+     * @param path The poster path from TMDB, such as "/abc.jpg".
+     */
+    public TmdbPoster(String path) {
+        this.path = path;
+    }
+
+    public String getPath() { return path; }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TmdbPoster && path.equals(((TmdbPoster) o).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TmdbPoster{" + path + "}";
+    }
+
+    /**
+     * Turns a poster into the URL of the size that fits the target.
+     */
+    public static class Loader extends BaseGlideUrlLoader<TmdbPoster> {
+
+        Loader(ModelLoader<GlideUrl, InputStream> urlLoader, ModelCache<TmdbPoster, GlideUrl> cache) {
+            super(urlLoader, cache);
+        }
+
+        @Override
+        protected String getUrl(TmdbPoster poster, int width, int height, Options options) {
+            String size = ImageUtil.posterSizeFor(width, height);
+            ImageLoadStats.getInstance().recordPosterSize(size);
+            return ImageUtil.IMAGE_BASE_URL + size + poster.getPath();
+        }
+
+        @Override
+        public boolean handles(@NonNull TmdbPoster poster) {
+            return true;
+        }
+    }
+
+    /**
+     * Creates {@link Loader}s for Glide's registry.
+     */
+    public static class Factory implements ModelLoaderFactory<TmdbPoster, InputStream> {
+
+        // Remembers the URL per poster and size, so rebinding a row does not rebuild it
+        private final ModelCache<TmdbPoster, GlideUrl> cache = new ModelCache<>(200);
+
+        @NonNull
+        @Override
+        public ModelLoader<TmdbPoster, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new Loader(multiFactory.build(GlideUrl.class, InputStream.class), cache);
+        }
+
+        @Override
+        public void teardown() {
+            cache.clear();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.moovie.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe, size-bounded LRU cache whose entries expire after a fixed time to live.
+ *
+ * Hits, misses, evictions and expirations are counted so callers can check the cache is doing
+ * its job.
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class TtlLruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlMs;
+
+    // Access-ordered so the eldest entry is the least recently used one
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * Constructor for TtlLruCache.
+     * @param maxSize The maximum number of entries kept.
+     * @param ttlMs How long an entry stays valid after it is written, in milliseconds.
+     */
+    public TtlLruCache(int maxSize, long ttlMs) {
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > TtlLruCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a live value, counting a hit or a miss.
+     * @param key The key to look up.
+     * @return The value, or null if absent or expired.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            map.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Stores a value using the cache's time to live.
+     * @param key The key.
+     * @param value The value; null values are not stored.
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null) return;
+        map.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMs));
+    }
+
+    /**
+     * Gets the live values without touching access order or counters.
+     * @return A copy of the unexpired values.
+     */
+    public synchronized List<V> values() {
+        long now = System.currentTimeMillis();
+        List<V> values = new ArrayList<>();
+        for (Entry<V> entry : map.values()) {
+            if (entry.expiresAt > now) values.add(entry.value);
+        }
+        return values;
+    }
+
+    /**
+     * Removes an entry.
+     * @param key The key to remove.
+     */
+    public synchronized void remove(K key) {
+        map.remove(key);
+    }
+
+    /**
+     * Drops every expired entry.
+     */
+    public synchronized void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry<V>> it = map.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiresAt <= now) {
+                it.remove();
+                expirations++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries currently held, including expired ones not yet purged.
+     * @return The entry count.
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Gets a snapshot of the cache counters.
+     * @return The current stats.
+     */
+    public synchronized Stats getStats() {
+        Stats s = new Stats();
+        s.size = map.size();
+        s.maxSize = maxSize;
+        s.hits = hits;
+        s.misses = misses;
+        s.evictions = evictions;
+        s.expirations = expirations;
+        return s;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Point-in-time view of the cache counters.
+     */
+    public static class Stats {
+        public int size;
+        public int maxSize;
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long expirations;
+
+        @Override
+        public String toString() {
+            return "size=" + size + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+                    + ", evictions=" + evictions + ", expirations=" + expirations;
+        }
+    }
+}
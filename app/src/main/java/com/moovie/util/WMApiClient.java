@@ -1,18 +1,50 @@
 package com.moovie.util;
 
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Client for the WatchMode API.
+ *
+ * Every request takes a permit from a shared token bucket first, so one instance should serve
+ * all Watchmode callers. Requests answered with 429 or a 5xx are retried with jittered
+ * exponential backoff; a 429 also pauses the bucket for everyone, honoring Retry-After.
  */
 public class WMApiClient {
+    private static final String TAG = "WMApiClient";
     private static final String BASE = "https://api.watchmode.com/v1/";
+
+    // Sustained rate and burst the client allows itself, under Watchmode's per-key limits
+    private static final double PERMITS_PER_SECOND = 2;
+    private static final int BURST = 5;
+
+    private static final long BASE_BACKOFF_MS = 500;
+    // Waits longer than this are handed back to the caller instead of blocking a worker
+    private static final long MAX_BACKOFF_MS = 8000;
+    private static final int FOREGROUND_ATTEMPTS = 3;
+    private static final int BACKGROUND_ATTEMPTS = 2;
+
     private final String apiKey;
-    private final OkHttpClient client = new OkHttpClient();
+    // Shares the app-wide connection pool and dispatcher
+    private final OkHttpClient client = HttpClients.get();
+    private final RateLimiter limiter = new RateLimiter(PERMITS_PER_SECOND, BURST);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
 
     /**
      * Constructor for WMApiClient.
@@ -23,17 +55,125 @@ public class WMApiClient {
     }
 
     /**
-     * Executes a GET request to the WatchMode API.
+     * Executes a GET request to the WatchMode API in the foreground lane.
      * @param endpoint The API endpoint (e.g., "search/").
      * @return The response body as a string.
      * @throws IOException If the request fails.
      */
     public String get(String endpoint) throws IOException {
+        return execute(endpoint, RateLimiter.Lane.FOREGROUND,
+                res -> res.body() != null ? res.body().string() : null);
+    }
+
+    /**
+     * Executes a GET request to the WatchMode API and parses the body as it streams in.
+     * @param endpoint The API endpoint, optionally with query parameters (e.g., "sources/").
+     * @param lane The priority lane the request waits in.
+     * @param parser Reads the JSON body.
+     * @param <T> The parsed type.
+     * @return The parsed body.
+     * @throws IOException If the request fails after retries or the body is malformed.
+     */
+    public <T> T get(String endpoint, RateLimiter.Lane lane, BodyParser<T> parser) throws IOException {
+        return execute(endpoint, lane, res -> {
+            if (res.body() == null) throw new IOException("Empty response " + res);
+            try (JsonReader reader = new JsonReader(res.body().charStream())) {
+                return parser.parse(reader);
+            } catch (JsonParseException e) {
+                // Gson.fromJson wraps every IOException, including timeouts and cancellations
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException && !(cause instanceof MalformedJsonException)
+                        && !(cause instanceof EOFException)) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Malformed Watchmode response", e);
+            } catch (MalformedJsonException | IllegalStateException e) {
+                // Thrown by the reader itself, e.g. an unexpected token in a hand-written parser
+                throw new IOException("Malformed Watchmode response", e);
+            }
+        });
+    }
+
+    /**
+     * Gets the request, retry and rate limiter counters.
+     * @return A readable summary.
+     */
+    public String getStats() {
+        return "requests=" + requests.get() + ", retries=" + retries.get()
+                + ", failures=" + failures.get() + ", limiter[" + limiter.getStats() + "]";
+    }
+
+    private <T> T execute(String endpoint, RateLimiter.Lane lane, ResponseHandler<T> handler)
+            throws IOException {
         String url = BASE + endpoint + (endpoint.contains("?") ? "&" : "?") + "apiKey=" + apiKey;
         Request req = new Request.Builder().url(url).build();
-        try (Response res = client.newCall(req).execute()) {
-            if (!res.isSuccessful()) throw new IOException("Unexpected code " + res);
-            return res.body() != null ? res.body().string() : null;
+        int maxAttempts = lane == RateLimiter.Lane.FOREGROUND ? FOREGROUND_ATTEMPTS : BACKGROUND_ATTEMPTS;
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                limiter.acquire(lane);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Cancelled while waiting for a Watchmode permit");
+            }
+
+            requests.incrementAndGet();
+            HttpStatusException error;
+            try (Response res = client.newCall(req).execute()) {
+                if (res.isSuccessful()) {
+                    return handler.handle(res);
+                }
+                error = new HttpStatusException(res.code(),
+                        HttpStatusException.parseRetryAfter(res.header("Retry-After")),
+                        "HTTP error " + res.code() + " for " + endpoint);
+            }
+
+            long delay = backoff(error, attempt);
+            if (error.isRateLimited()) {
+                // Everyone shares the quota, so everyone waits
+                limiter.pause(delay);
+            }
+            if (delay < 0 || delay > MAX_BACKOFF_MS || attempt + 1 >= maxAttempts) {
+                failures.incrementAndGet();
+                throw error;
+            }
+
+            retries.incrementAndGet();
+            Log.d(TAG, "Retrying " + endpoint + " in " + delay + "ms after HTTP " + error.getCode());
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Cancelled while backing off");
+            }
         }
     }
+
+    // Jittered exponential delay before the next attempt, or -1 if the error should not be retried
+    private static long backoff(HttpStatusException error, int attempt) {
+        int code = error.getCode();
+        if (code != 429 && code < 500) return -1;
+
+        long ceiling = BASE_BACKOFF_MS << attempt;
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        return Math.max(delay, error.getRetryAfterMs());
+    }
+
+    /**
+     * Reads a JSON response body.
+     * @param <T> The parsed type.
+     */
+    public interface BodyParser<T> {
+        /**
+         * Parses the body.
+         * @param reader A reader positioned at the start of the body.
+         * @return The parsed value.
+         * @throws IOException If the body cannot be read.
+         */
+        T parse(JsonReader reader) throws IOException;
+    }
+
+    private interface ResponseHandler<T> {
+        T handle(Response res) throws IOException;
+    }
 }
@@ -0,0 +1,186 @@
+package com.moovie.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures {@link RankingEngine} against plain binary search on synthetic users.
+ *
+ * Every movie has a quality and a genre. Other users' placement of a movie, which stands in for
+ * its avgRankNorm, is its quality rank blurred by noise. A user likes some genres more than
+ * others, has their own taste on top, and mostly watches better movies, so their list does not
+ * match the global ranks. Each user ranks their movies one at a time, exactly as in
+ * RankingActivity, answering every question truthfully. The engine gets the global rank and the
+ * user's same-genre average as priors; binary search gets nothing.
+ *
+ * The seed is fixed, so the savings asserted here are the ones measured for it: about 3% in the
+ * default exact mode and about a third with approximate placement.
+ */
+public class RankingEngineTest {
+
+    private static final long SEED = 42;
+    private static final int USERS = 200;
+
+    private static final int CATALOG_SIZE = 5000;
+    private static final int GENRES = 12;
+    private static final int MOVIES_PER_USER = 300;
+
+    private static final double GLOBAL_NOISE = 0.5;
+    private static final double GENRE_TASTE = 0.6;
+    private static final double PERSONAL_TASTE = 0.6;
+    // How strongly users pick better movies to watch
+    private static final double WATCH_SELECTIVITY = 0.7;
+
+    private static Random random;
+    private static final double[] quality = new double[CATALOG_SIZE];
+    private static final int[] genre = new int[CATALOG_SIZE];
+    private static final double[] globalNorm = new double[CATALOG_SIZE];
+
+    private static long inserts;
+    private static long binaryQuestions;
+    private static long exactQuestions;
+    private static long approximateQuestions;
+    private static long exactDisplacement;
+    private static long approximateDisplacement;
+
+    @BeforeClass
+    public static void simulate() {
+        random = new Random(SEED);
+        buildCatalog();
+        for (int u = 0; u < USERS; u++) simulateUser();
+    }
+
+    @Test
+    public void exactModePlacesEveryMovieExactly() {
+        assertEquals(0, exactDisplacement);
+    }
+
+    @Test
+    public void exactModeAsksFewerQuestionsThanBinarySearch() {
+        assertTrue("exact saving " + saving(exactQuestions), saving(exactQuestions) >= 0.02);
+    }
+
+    @Test
+    public void approximateModeSavesAThirdOfTheQuestions() {
+        assertTrue("approximate saving " + saving(approximateQuestions),
+                saving(approximateQuestions) >= 0.30);
+    }
+
+    @Test
+    public void approximateModeStaysWithinAFewPositions() {
+        double mean = (double) approximateDisplacement / inserts;
+        assertTrue("mean displacement " + mean, mean < 1.5);
+    }
+
+    @Test
+    public void binarySearchWithoutPriorAsksLog2Questions() {
+        RankingEngine engine = run(new RankingEngine(1023, new RankingEngine.Prior()), 700);
+        assertEquals(10, engine.getComparisons());
+        assertEquals(700, engine.getPosition());
+    }
+
+    // Fraction of binary search's questions saved
+    private static double saving(long questions) {
+        return (double) (binaryQuestions - questions) / binaryQuestions;
+    }
+
+    private static void buildCatalog() {
+        List<Integer> byPerceived = new ArrayList<>(CATALOG_SIZE);
+        double[] perceived = new double[CATALOG_SIZE];
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            quality[i] = random.nextGaussian();
+            genre[i] = random.nextInt(GENRES);
+            perceived[i] = quality[i] + GLOBAL_NOISE * random.nextGaussian();
+            byPerceived.add(i);
+        }
+        // Best first, as in a ranked list
+        Collections.sort(byPerceived, (a, b) -> Double.compare(perceived[b], perceived[a]));
+        for (int rank = 0; rank < CATALOG_SIZE; rank++) {
+            globalNorm[byPerceived.get(rank)] = (rank + 0.5) / CATALOG_SIZE;
+        }
+    }
+
+    // One user ranking all their movies
+    private static void simulateUser() {
+        double[] genreTaste = new double[GENRES];
+        for (int g = 0; g < GENRES; g++) genreTaste[g] = GENRE_TASTE * random.nextGaussian();
+
+        List<Integer> watched = pickWatched();
+        double[] score = new double[CATALOG_SIZE];
+        for (int movie : watched) {
+            score[movie] = quality[movie] + genreTaste[genre[movie]] + PERSONAL_TASTE * random.nextGaussian();
+        }
+
+        List<Integer> list = new ArrayList<>();
+        for (int movie : watched) {
+            int size = list.size();
+            int truth = 0;
+            while (truth < size && score[list.get(truth)] > score[movie]) truth++;
+
+            RankingEngine.Prior prior = buildPrior(list, movie);
+            // Priors alone, always finding the exact spot, as the app does by default
+            RankingEngine exact = run(new RankingEngine(size, prior), truth);
+            // The opt-in approximate placement
+            RankingEngine approximate = new RankingEngine(size, prior);
+            approximate.setApproximate(true);
+            run(approximate, truth);
+            // No prior and no early stop is plain binary search
+            RankingEngine binary = run(new RankingEngine(size, new RankingEngine.Prior()), truth);
+
+            inserts++;
+            binaryQuestions += binary.getComparisons();
+            exactQuestions += exact.getComparisons();
+            approximateQuestions += approximate.getComparisons();
+            exactDisplacement += Math.abs(exact.getPosition() - truth);
+            approximateDisplacement += Math.abs(approximate.getPosition() - truth);
+
+            list.add(truth, movie);
+        }
+    }
+
+    // Answers every question truthfully
+    private static RankingEngine run(RankingEngine engine, int truth) {
+        while (!engine.isDone()) {
+            int asked = engine.nextComparison();
+            engine.answer(asked >= truth);
+        }
+        return engine;
+    }
+
+    // Watched movies in the order they are ranked, favouring better ones
+    private static List<Integer> pickWatched() {
+        List<Integer> watched = new ArrayList<>(MOVIES_PER_USER);
+        boolean[] taken = new boolean[CATALOG_SIZE];
+        while (watched.size() < MOVIES_PER_USER) {
+            int movie = random.nextInt(CATALOG_SIZE);
+            double keep = Math.exp(WATCH_SELECTIVITY * (quality[movie] - 3));
+            if (!taken[movie] && random.nextDouble() < keep) {
+                taken[movie] = true;
+                watched.add(movie);
+            }
+        }
+        return watched;
+    }
+
+    // The same estimates RankingActivity gathers: global placement and same-genre placement
+    private static RankingEngine.Prior buildPrior(List<Integer> list, int movie) {
+        RankingEngine.Prior prior = new RankingEngine.Prior().setGlobalNorm(globalNorm[movie]);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < list.size(); i++) {
+            if (genre[list.get(i)] == genre[movie]) {
+                sum += (i + 0.5) / list.size();
+                count++;
+            }
+        }
+        return prior.setGenreNorm(count > 0 ? sum / count : Double.NaN, count);
+    }
+}
@@ -1,197 +1,939 @@
 const { onDocumentWritten } = require("firebase-functions/v2/firestore");
+const { onSchedule } = require("firebase-functions/v2/scheduler");
+const { onCall, HttpsError } = require("firebase-functions/v2/https");
 const admin = require("firebase-admin");
 
 admin.initializeApp();
 const db = admin.firestore();
 
+/**
+ * Finds the movie document for a TMDB id. New documents live at the
+ * deterministic id "tmdb_<tmdbId>" (see MovieIdResolver in the app), so that
+ * is a direct get; documents created before that are found by query, picking
+ * the one dedupeMovies would keep.
+ */
+async function findMovieDoc(tmdbId) {
+  const direct = await db.collection("movies").doc(`tmdb_${tmdbId}`).get();
+  if (direct.exists) {
+    return direct;
+  }
+
+  const legacy = await db
+    .collection("movies")
+    .where("tmdbId", "==", tmdbId)
+    .get();
+  return legacy.empty ? null : pickCanonical(tmdbId, legacy.docs);
+}
+
+// Global distribution of normalized ranks, split over shards so concurrent
+// writes don't contend on one document
+const HISTOGRAM_BUCKETS = 100;
+const HISTOGRAM_SHARDS = 10;
+
+// How long rankEvents markers are kept, through a TTL policy on expireAt;
+// trigger retries arrive well within this
+const RANK_EVENT_TTL_MS = 7 * 24 * 60 * 60 * 1000;
+
+/**
+ * What one watched entry contributes to the aggregates: its movie and its
+ * normalized rank in (0, 1), lower being better. Entries that are not ranked,
+ * or were written before rankNorm existed, contribute nothing.
+ */
+function rankContribution(data) {
+  if (!data || data.ranked !== true ||
+      typeof data.tmdbId !== "number" || typeof data.rankNorm !== "number") {
+    return null;
+  }
+  return { tmdbId: data.tmdbId, norm: Math.min(Math.max(data.rankNorm, 0), 1) };
+}
+
+function bucketOf(norm) {
+  return Math.min(HISTOGRAM_BUCKETS - 1, Math.floor(norm * HISTOGRAM_BUCKETS));
+}
+
+/**
+ * Sums the histogram shards into one array of bucket counts.
+ */
+async function readHistogram() {
+  const buckets = new Array(HISTOGRAM_BUCKETS).fill(0);
+  const shards = await db.collection("rankHistogram").get();
+  shards.forEach((shard) => {
+    const counts = shard.get("buckets") || {};
+    for (const [bucket, count] of Object.entries(counts)) {
+      buckets[Number(bucket)] += count;
+    }
+  });
+  return buckets;
+}
+
+/**
+ * Percentage of all rankings that are worse (higher) than the given
+ * normalized rank, interpolating inside its bucket.
+ */
+function percentileOf(norm, buckets) {
+  const total = buckets.reduce((sum, count) => sum + count, 0);
+  if (total <= 0) {
+    return 0;
+  }
+  const bucket = bucketOf(norm);
+  let worse = buckets[bucket] * (1 - (norm * HISTOGRAM_BUCKETS - bucket));
+  for (let i = bucket + 1; i < HISTOGRAM_BUCKETS; i++) {
+    worse += buckets[i];
+  }
+  return Math.min(100, Math.max(0, (worse / total) * 100));
+}
+
+/**
+ * Converts a percentile to a star rating.
+ * Top 10% = 5 stars, 10-25% = 4.5, 25-45% = 4, 45-65% = 3.5, 65-80% = 3,
+ * 80-90% = 2.5, 90-95% = 2, 95-98% = 1.5, 98-99% = 1, bottom 1% = 0.5.
+ */
+function starRatingFor(percentile) {
+  if (percentile >= 90) return 5.0;
+  if (percentile >= 75) return 4.5;
+  if (percentile >= 55) return 4.0;
+  if (percentile >= 35) return 3.5;
+  if (percentile >= 20) return 3.0;
+  if (percentile >= 10) return 2.5;
+  if (percentile >= 5) return 2.0;
+  if (percentile >= 2) return 1.5;
+  if (percentile >= 1) return 1.0;
+  return 0.5;
+}
+
+/**
+ * Recomputes a movie's rating fields from its running sums and the global
+ * histogram. Reads a fixed number of documents however many users there are.
+ */
+async function refreshMovieRank(tmdbId, buckets) {
+  const stats = await db.collection("movieRankStats").doc(String(tmdbId)).get();
+  const count = stats.get("count") || 0;
+  const sumNorm = stats.get("sumNorm") || 0;
+
+  const movieDoc = await findMovieDoc(tmdbId);
+  if (!movieDoc) {
+    console.log(`⚠️ No movie document found for tmdbId=${tmdbId}`);
+    return;
+  }
+
+  if (count <= 0) {
+    await movieDoc.ref.update({
+      avgRanking: 0,
+      numRankings: 0,
+      percentile: 0,
+      lastUpdated: admin.firestore.FieldValue.serverTimestamp(),
+    });
+    return;
+  }
+
+  const avgRankNorm = sumNorm / count;
+  const percentile = percentileOf(avgRankNorm, buckets);
+  const starRating = starRatingFor(percentile);
+
+  await movieDoc.ref.update({
+    avgRanking: starRating,
+    numRankings: count,
+    avgRankNorm: avgRankNorm,
+    percentile: Math.round(percentile * 10) / 10, // Round to 1 decimal
+    lastUpdated: admin.firestore.FieldValue.serverTimestamp(),
+  });
+
+  console.log(`✅ tmdbId=${tmdbId}: ${starRating} stars, ${count} rankings, ` +
+    `percentile ${percentile.toFixed(1)}%`);
+}
+
+/**
+ * Keeps movie ratings current as users rank movies. Only the difference
+ * between the entry's old and new contribution is applied: per-movie running
+ * sums in movieRankStats/{tmdbId} and one histogram shard, both by increment,
+ * so the cost of a write no longer grows with the number of rankings.
+ *
+ * The movie's rating itself is not recomputed here. A reorder rewrites many
+ * entries at once, so the movie is only marked dirty and drainRankDirty
+ * recomputes each dirty movie once per run.
+ *
+ * Triggers are delivered at least once. Each event creates a marker
+ * rankEvents/{eventId} in the same batch as its increments, so a redelivered
+ * event fails on the existing marker and nothing is applied twice. Markers
+ * expire through a TTL policy on their expireAt field.
+ */
 exports.updateMovieAverageRank = onDocumentWritten(
   "users/{userId}/watched/{watchedDocId}",
   async (event) => {
-    const startTime = Date.now();
-    console.log("=== FUNCTION TRIGGERED ===");
-    console.log("User ID:", event.params.userId);
-    console.log("Watched Doc ID:", event.params.watchedDocId);
+    const before = rankContribution(event.data?.before?.data());
+    const after = rankContribution(event.data?.after?.data());
 
-    // Get the tmdbId from the document data (NOT the document ID)
-    const afterData = event.data?.after?.data();
-    const beforeData = event.data?.before?.data();
+    if (!before && !after) {
+      return null;
+    }
+    if (before && after && before.tmdbId === after.tmdbId && before.norm === after.norm) {
+      return null;
+    }
 
-    console.log("After data:", afterData);
-    console.log("Before data:", beforeData);
+    // tmdbId -> change in sum and count; bucket -> change in count
+    const movieDeltas = new Map();
+    const bucketDeltas = new Map();
+    const apply = (contribution, sign) => {
+      if (!contribution) {
+        return;
+      }
+      const delta = movieDeltas.get(contribution.tmdbId) || { sum: 0, count: 0 };
+      delta.sum += sign * contribution.norm;
+      delta.count += sign;
+      movieDeltas.set(contribution.tmdbId, delta);
+
+      const bucket = bucketOf(contribution.norm);
+      bucketDeltas.set(bucket, (bucketDeltas.get(bucket) || 0) + sign);
+    };
+    apply(before, -1);
+    apply(after, 1);
+
+    const increment = admin.firestore.FieldValue.increment;
+    const eventAt = admin.firestore.Timestamp.fromDate(new Date(event.time));
+    const batch = db.batch();
+
+    // The marker fails the whole batch if this event was applied before
+    batch.create(db.collection("rankEvents").doc(event.id), {
+      expireAt: admin.firestore.Timestamp.fromMillis(eventAt.toMillis() + RANK_EVENT_TTL_MS),
+    });
+
+    const bucketUpdates = {};
+    let totalDelta = 0;
+    for (const [bucket, delta] of bucketDeltas) {
+      if (delta !== 0) {
+        bucketUpdates[bucket] = increment(delta);
+        totalDelta += delta;
+      }
+    }
+    if (Object.keys(bucketUpdates).length > 0) {
+      const shard = Math.floor(Math.random() * HISTOGRAM_SHARDS);
+      batch.set(db.collection("rankHistogram").doc(`shard_${shard}`), {
+        buckets: bucketUpdates,
+        total: increment(totalDelta),
+      }, { merge: true });
+    }
 
-    const tmdbId = afterData?.tmdbId || beforeData?.tmdbId;
+    for (const [tmdbId, delta] of movieDeltas) {
+      batch.set(db.collection("movieRankStats").doc(String(tmdbId)), {
+        tmdbId: tmdbId,
+        sumNorm: increment(delta.sum),
+        count: increment(delta.count),
+      }, { merge: true });
 
-    if (!tmdbId) {
-      console.error("❌ No tmdbId found in document data. Cannot proceed.");
-      return null;
+      // The entry's create time marks when the movie started waiting
+      batch.set(db.collection("rankDirty").doc(String(tmdbId)), {
+        tmdbId: tmdbId,
+        events: increment(1),
+        lastDirtyAt: eventAt,
+      }, { merge: true });
     }
 
-    console.log(`Processing movie with tmdbId: ${tmdbId} (type: ${typeof tmdbId})`);
-
     try {
-      // STEP 1: Query all watched documents across all users with this tmdbId
-      console.log(`\n=== QUERYING collectionGroup('watched') for tmdbId=${tmdbId} ===`);
-
-      const snapshot = await db
-        .collectionGroup("watched")
-        .where("tmdbId", "==", tmdbId)
-        .get();
+      await batch.commit();
+    } catch (error) {
+      if (error.code !== 6) { // ALREADY_EXISTS: a redelivered event
+        throw error;
+      }
+      console.log(`Skipping duplicate rank event ${event.id}`);
+    }
+    return null;
+  }
+);
+
+// Dirty movies recomputed per drainer run
+const DRAIN_LIMIT = 500;
+
+// Movies recomputed at once; each takes a handful of sequential round trips
+const DRAIN_PARALLELISM = 20;
+
+// The drainer stops starting new movies after this long, leaving the rest for
+// the next run, so the run ends, metrics included, before the next one starts
+// and well before its timeout
+const DRAIN_TIMEOUT_SECONDS = 120;
+const DRAIN_BUDGET_MS = 45 * 1000;
+
+/**
+ * Recomputes every movie whose rankings changed since the last run, once each
+ * however many watched writes touched it, and records how many events were
+ * coalesced and how long changes took to reach the movie documents. Movies
+ * are recomputed DRAIN_PARALLELISM at a time.
+ */
+exports.drainRankDirty = onSchedule({
+  schedule: "every 1 minutes",
+  timeoutSeconds: DRAIN_TIMEOUT_SECONDS,
+}, async () => {
+  const dirty = await db.collection("rankDirty").limit(DRAIN_LIMIT).get();
+  if (dirty.empty) {
+    return;
+  }
 
-      console.log(`✓ Query returned ${snapshot.size} documents`);
+  const buckets = await readHistogram();
+  const now = Date.now();
+  let events = 0;
+  let recomputes = 0;
+  let totalLagMs = 0;
+  let maxLagMs = 0;
 
-      // STEP 2: Collect all rankings for this movie
-      console.log("\n=== COLLECTING RANKINGS ===");
-      const rankings = [];
+  const drainOne = async (doc) => {
+    const tmdbId = doc.get("tmdbId");
+    try {
+      await refreshMovieRank(tmdbId, buckets);
+    } catch (error) {
+      console.error(`Could not recompute tmdbId=${tmdbId}:`, error);
+      return;
+    }
 
-      snapshot.forEach((doc) => {
-        const data = doc.data();
-        console.log(`  - Doc ${doc.id}: rankIndex=${data.rankIndex}, ranked=${data.ranked}, title="${data.title}"`);
+    // Entries dirtied again while we worked stay queued for the next run
+    try {
+      await doc.ref.delete({ lastUpdateTime: doc.updateTime });
+    } catch (error) {
+      console.log(`tmdbId=${tmdbId} changed during recompute; keeping it dirty`);
+      return;
+    }
 
-        // Only include movies that are ranked (ranked=true) and have a valid rankIndex
-        if (data.ranked === true && typeof data.rankIndex === "number" && data.rankIndex >= 0) {
-          rankings.push(data.rankIndex);
-        } else {
-          console.log(`    ⚠️ Skipping - not ranked or invalid rankIndex`);
-        }
-      });
+    recomputes++;
+    events += doc.get("events") || 0;
+    // Deleted after each recompute, so the entry was created when the movie became dirty
+    const lagMs = now - doc.createTime.toMillis();
+    totalLagMs += lagMs;
+    maxLagMs = Math.max(maxLagMs, lagMs);
+  };
+
+  for (let i = 0; i < dirty.size; i += DRAIN_PARALLELISM) {
+    if (Date.now() - now > DRAIN_BUDGET_MS) {
+      console.log(`Out of time; leaving ${dirty.size - i} dirty movies for the next run`);
+      break;
+    }
+    await Promise.all(dirty.docs.slice(i, i + DRAIN_PARALLELISM).map(drainOne));
+  }
 
-      if (rankings.length === 0) {
-        console.log("⚠️ No valid rankings found");
-        return null;
-      }
+  const increment = admin.firestore.FieldValue.increment;
+  const lastRun = {
+    events: events,
+    recomputes: recomputes,
+    coalescingRatio: recomputes > 0 ? events / recomputes : 0,
+    avgLagMs: recomputes > 0 ? Math.round(totalLagMs / recomputes) : 0,
+    maxLagMs: maxLagMs,
+  };
+  await db.collection("stats").doc("rankPropagation").set({
+    lastRunAt: admin.firestore.FieldValue.serverTimestamp(),
+    lastRun: lastRun,
+    events: increment(events),
+    recomputes: increment(recomputes),
+    totalLagMs: increment(totalLagMs),
+  }, { merge: true });
+
+  console.log("Drained rank updates:", lastRun);
+});
+
+// Stored normalized ranks may be off by up to this, so an insert does not
+// rewrite the whole list. Half of it is spent when a refresh leaves ranks that
+// are nearly right alone, the other half on changes until the next refresh.
+const NORM_TOLERANCE = 0.05;
+const NORM_HALF_TOLERANCE = NORM_TOLERANCE / 2;
+
+// Users whose normalized ranks are refreshed per drainer run
+const NORM_DRAIN_LIMIT = 50;
+
+/**
+ * Normalized rank of a 0-based position in a list of the given length, in
+ * (0, 1) with lower being better. Same formula as MovieListItem.normalizeRank
+ * in the app.
+ */
+function normalizeRank(position, total) {
+  return (position + 0.5) / total;
+}
+
+/**
+ * Queues an update for every entry whose stored normalized rank is off by
+ * more than the tolerance. docs are consecutive entries of one user's ranked
+ * list in list order, starting at position offset of a list of total entries;
+ * by default, the whole list. Returns how many updates were queued.
+ */
+function queueNormUpdates(writer, docs, tolerance, offset = 0, total = docs.length) {
+  let updated = 0;
+  docs.forEach((doc, index) => {
+    const rankNorm = normalizeRank(offset + index, total);
+    const stored = doc.get("rankNorm");
+    if (typeof stored !== "number" || Math.abs(stored - rankNorm) > tolerance) {
+      writer.update(doc.ref, { rankNorm: rankNorm });
+      updated++;
+    }
+  });
+  return updated;
+}
+
+/**
+ * Marks a user's normalized ranks for a refresh when their list changes
+ * shape: an entry is ranked, unranked, removed or moved. The app only writes
+ * the moved entry's own rankNorm; the others shift slightly and are caught up
+ * by drainRankNorms. Refreshes only change rankNorm, so they do not mark the
+ * list again.
+ *
+ * Besides the pending flag, the marker accumulates what drainRankNorms needs
+ * to bound the drift without reading the list: how many changes there were,
+ * how much the list grew or shrank, and the keys they touched.
+ */
+exports.markRankNormsDirty = onDocumentWritten(
+  "users/{userId}/watched/{watchedDocId}",
+  async (event) => {
+    const before = event.data?.before?.data();
+    const after = event.data?.after?.data();
+    const wasRanked = before?.ranked === true;
+    const isRanked = after?.ranked === true;
+    if (!wasRanked && !isRanked) {
+      return null;
+    }
+    if (wasRanked && isRanked && before.rankIndex === after.rankIndex) {
+      return null;
+    }
+    const keys = [];
+    if (wasRanked && typeof before.rankIndex === "number") {
+      keys.push(before.rankIndex);
+    }
+    if (isRanked && typeof after.rankIndex === "number") {
+      keys.push(after.rankIndex);
+    }
+    const FieldValue = admin.firestore.FieldValue;
+    await db.collection("rankNormDirty").doc(event.params.userId).set({
+      userId: event.params.userId,
+      pending: true,
+      changes: FieldValue.increment(1),
+      sizeDelta: FieldValue.increment((isRanked ? 1 : 0) - (wasRanked ? 1 : 0)),
+      changedKeys: FieldValue.arrayUnion(...keys),
+      lastDirtyAt: admin.firestore.Timestamp.fromDate(new Date(event.time)),
+    }, { merge: true });
+    return null;
+  }
+);
+
+/**
+ * Brings one user's stored normalized ranks back within tolerance, reading as
+ * little of the list as the marker allows. Returns how many entries were
+ * rewritten, or null if the drift was still within tolerance and nothing was
+ * read.
+ *
+ * Since the last refresh, no entry moved by more than the number of changes,
+ * nor did the length, so no stored rank drifted by more than twice the changes
+ * over the length. Within half the tolerance there is nothing to do.
+ * Otherwise, the entries before the smallest touched key kept their positions
+ * and only see the length change; when that alone stays within half the
+ * tolerance, only the entries from that key on are read, behind a count of the
+ * ones before it.
+ */
+async function refreshRankNorms(marker) {
+  const listSize = marker.get("listSize");
+  const changes = marker.get("changes") || 0;
+  const sizeDelta = marker.get("sizeDelta") || 0;
+  const changedKeys = marker.get("changedKeys") || [];
+  const known = typeof listSize === "number";
+  const size = known ? Math.max(0, listSize + sizeDelta) : 0;
+  if (known && 2 * changes <= NORM_HALF_TOLERANCE * Math.max(1, size)) {
+    return null;
+  }
 
-      // STEP 3: Calculate average rank position
-      const avgRankIndex = rankings.reduce((sum, rank) => sum + rank, 0) / rankings.length;
-      console.log(`\n📊 Average rankIndex: ${avgRankIndex} (from ${rankings.length} users)`);
+  const ranked = db.collection("users").doc(marker.get("userId")).collection("watched")
+    .where("ranked", "==", true);
+  const writer = db.bulkWriter();
+  let updated;
+  let total;
+  if (known && changedKeys.length > 0
+      && Math.abs(sizeDelta) <= NORM_HALF_TOLERANCE * Math.max(1, size)) {
+    const fromKey = Math.min(...changedKeys);
+    const [before, tail] = await Promise.all([
+      ranked.where("rankIndex", "<", fromKey).count().get(),
+      ranked.where("rankIndex", ">=", fromKey).orderBy("rankIndex").get(),
+    ]);
+    const offset = before.data().count;
+    total = offset + tail.size;
+    updated = queueNormUpdates(writer, tail.docs, NORM_HALF_TOLERANCE, offset, total);
+  } else {
+    const all = await ranked.orderBy("rankIndex").get();
+    total = all.size;
+    updated = queueNormUpdates(writer, all.docs, NORM_HALF_TOLERANCE);
+  }
+  await writer.close();
+
+  // Changes made while this ran keep the marker pending, and counted, for the
+  // next run
+  try {
+    await marker.ref.update({
+      pending: false,
+      listSize: total,
+      changes: 0,
+      sizeDelta: 0,
+      changedKeys: [],
+      refreshedAt: admin.firestore.FieldValue.serverTimestamp(),
+    }, { lastUpdateTime: marker.updateTime });
+  } catch (error) {
+    console.log(`${marker.get("userId")} changed during refresh; keeping it pending`);
+  }
+  return updated;
+}
+
+/**
+ * Rewrites the normalized ranks that have drifted for every user whose list
+ * changed since the last run. The rewrites reach the movie aggregates through
+ * updateMovieAverageRank like any other rankNorm change.
+ */
+exports.drainRankNorms = onSchedule("every 1 minutes", async () => {
+  const dirty = await db.collection("rankNormDirty")
+    .where("pending", "==", true)
+    .limit(NORM_DRAIN_LIMIT)
+    .get();
+  if (dirty.empty) {
+    return;
+  }
 
-      // STEP 4: Get all user lists to determine percentile
-      console.log("\n=== CALCULATING PERCENTILE ===");
+  let updated = 0;
+  let refreshed = 0;
+  let skipped = 0;
+  for (const doc of dirty.docs) {
+    const userId = doc.get("userId");
+    let result;
+    try {
+      result = await refreshRankNorms(doc);
+    } catch (error) {
+      console.error(`Could not refresh rank norms for ${userId}:`, error);
+      continue;
+    }
+    if (result !== null) {
+      updated += result;
+      refreshed++;
+      continue;
+    }
 
-      // Get total count of watched movies across all users to establish context
-      const allWatchedSnapshot = await db.collectionGroup("watched").get();
-      const allRankings = [];
+    // Still within tolerance: keep the counts, stop polling until the next change
+    skipped++;
+    try {
+      await doc.ref.update({ pending: false }, { lastUpdateTime: doc.updateTime });
+    } catch (error) {
+      console.log(`${userId} changed during the check; keeping it pending`);
+    }
+  }
+  console.log(`Refreshed ${updated} rank norms for ${refreshed} users; ${skipped} within tolerance`);
+});
+
+/**
+ * One-off migration for rankings written before rankNorm existed. Computes
+ * each user's normalized ranks from rankIndex and writes them back; the
+ * trigger above then folds them into the aggregates. Admins only.
+ */
+exports.backfillRankNorm = onCall(async (request) => {
+  if (request.auth?.token?.admin !== true) {
+    throw new HttpsError("permission-denied", "Admins only");
+  }
 
-      allWatchedSnapshot.forEach((doc) => {
-        const data = doc.data();
-        if (typeof data.rankIndex === "number") {
-          allRankings.push(data.rankIndex);
-        }
-      });
+  const snapshot = await db.collectionGroup("watched").where("ranked", "==", true).get();
+  const byUser = new Map();
+  snapshot.forEach((doc) => {
+    const key = doc.ref.parent.path;
+    if (!byUser.has(key)) {
+      byUser.set(key, []);
+    }
+    byUser.get(key).push(doc);
+  });
+
+  const writer = db.bulkWriter();
+  let updated = 0;
+  for (const docs of byUser.values()) {
+    docs.sort((a, b) => (a.get("rankIndex") || 0) - (b.get("rankIndex") || 0));
+    updated += queueNormUpdates(writer, docs, 0);
+  }
+  await writer.close();
+
+  console.log(`Backfilled rankNorm on ${updated} entries for ${byUser.size} users`);
+  return { users: byUser.size, updated: updated };
+});
+
+/**
+ * Picks the document that survives a merge: the deterministic "tmdb_<id>"
+ * document when there is one, otherwise the one carrying the most ratings and
+ * rankings, ties broken by id so reruns agree.
+ */
+function pickCanonical(tmdbId, docs) {
+  const deterministic = docs.find((doc) => doc.id === `tmdb_${tmdbId}`);
+  if (deterministic) {
+    return deterministic;
+  }
+  // Plain code-unit order for ties, as MovieIdResolver.pickCanonical compares ids in the app
+  const weight = (doc) => (doc.get("numRatings") || 0) + (doc.get("numRankings") || 0);
+  const byId = (a, b) => (a.id < b.id ? -1 : a.id > b.id ? 1 : 0);
+  return [...docs].sort((a, b) => weight(b) - weight(a) || byId(a, b))[0];
+}
+
+/**
+ * Folds duplicate movie documents for one tmdbId into a single document:
+ * ratings move over and their aggregates are combined, users' watched and
+ * wantToWatch entries are re-keyed, and a redirect is left behind for clients
+ * still holding a removed id.
+ */
+async function mergeMovieGroup(tmdbId, docs, counters) {
+  const canonical = pickCanonical(tmdbId, docs);
+  const duplicates = docs.filter((doc) => doc.id !== canonical.id);
+  const writer = db.bulkWriter();
+
+  let numRatings = canonical.get("numRatings") || 0;
+  let ratingSum = (canonical.get("avgRating") || 0) * numRatings;
+
+  for (const dup of duplicates) {
+    const ratings = await dup.ref.collection("ratings").get();
+    ratings.forEach((rating) => {
+      writer.set(canonical.ref.collection("ratings").doc(rating.id), rating.data());
+      writer.delete(rating.ref);
+    });
+    counters.ratingsMoved += ratings.size;
+
+    const dupRatings = dup.get("numRatings") || 0;
+    numRatings += dupRatings;
+    ratingSum += (dup.get("avgRating") || 0) * dupRatings;
+
+    writer.set(db.collection("movieRedirects").doc(dup.id), {
+      canonicalId: canonical.id,
+      tmdbId: tmdbId,
+      mergedAt: admin.firestore.FieldValue.serverTimestamp(),
+    });
+  }
 
-      // Sort rankings (lower rankIndex = better ranking = higher percentile)
-      allRankings.sort((a, b) => a - b);
-
-      console.log(`Total movies ranked across all users: ${allRankings.length}`);
-      console.log(`This movie's avg rankIndex: ${avgRankIndex}`);
-
-      // Find percentile (what % of movies are ranked worse than this one)
-      const worseCount = allRankings.filter(rank => rank > avgRankIndex).length;
-      const percentile = allRankings.length > 0 ? (worseCount / allRankings.length) * 100 : 0;
-
-      console.log(`Movies ranked worse: ${worseCount}/${allRankings.length}`);
-      console.log(`Percentile: ${percentile.toFixed(1)}%`);
-
-      // STEP 5: Convert percentile to star rating
-      // Top 10% = 5 stars
-      // 10-25% = 4.5 stars
-      // 25-45% = 4 stars
-      // 45-65% = 3.5 stars
-      // 65-80% = 3 stars
-      // 80-90% = 2.5 stars
-      // 90-95% = 2 stars
-      // 95-98% = 1.5 stars
-      // 98-100% = 1 star
-      // Bottom 0-2% = 0.5 stars
-
-      let starRating;
-      if (percentile >= 90) {
-        starRating = 5.0;
-      } else if (percentile >= 75) {
-        starRating = 4.5;
-      } else if (percentile >= 55) {
-        starRating = 4.0;
-      } else if (percentile >= 35) {
-        starRating = 3.5;
-      } else if (percentile >= 20) {
-        starRating = 3.0;
-      } else if (percentile >= 10) {
-        starRating = 2.5;
-      } else if (percentile >= 5) {
-        starRating = 2.0;
-      } else if (percentile >= 2) {
-        starRating = 1.5;
-      } else if (percentile >= 1) {
-        starRating = 1.0;
-      } else {
-        starRating = 0.5;
+  // List entries are keyed by movie document id, so they move with it
+  const duplicateIds = new Set(duplicates.map((doc) => doc.id));
+  for (const list of ["watched", "wantToWatch"]) {
+    const entries = await db.collectionGroup(list).where("tmdbId", "==", tmdbId).get();
+    const canonicalEntries = new Set(entries.docs
+        .filter((entry) => entry.id === canonical.id)
+        .map((entry) => entry.ref.parent.path));
+
+    entries.forEach((entry) => {
+      if (!duplicateIds.has(entry.id)) {
+        return;
+      }
+      const target = entry.ref.parent.doc(canonical.id);
+      const data = entry.data();
+      if (!canonicalEntries.has(entry.ref.parent.path)) {
+        writer.set(target, data);
+        canonicalEntries.add(entry.ref.parent.path);
+      } else if (data.ranked === true) {
+        // The user already has the movie; keep whichever entry carries a ranking
+        writer.set(target, data, { merge: true });
       }
+      writer.delete(entry.ref);
+      counters.listEntriesMoved++;
+    });
+  }
 
-      console.log(`⭐ Star rating: ${starRating} stars`);
+  writer.update(canonical.ref, {
+    numRatings: numRatings,
+    avgRating: numRatings > 0 ? ratingSum / numRatings : 0,
+  });
+  await writer.close();
+
+  // Only drop the duplicates once everything pointing at them has moved
+  const deletes = db.bulkWriter();
+  duplicates.forEach((dup) => deletes.delete(dup.ref));
+  await deletes.close();
+
+  console.log(`Merged ${duplicates.length} duplicate(s) of tmdbId=${tmdbId} into ${canonical.id}`);
+}
+
+/**
+ * Nightly job that finds movies stored under more than one document and
+ * merges them. Counters are kept in stats/movieDedupe.
+ */
+exports.dedupeMovies = onSchedule("every 24 hours", async () => {
+  const snapshot = await db
+    .collection("movies")
+    .select("tmdbId", "numRatings", "avgRating", "numRankings")
+    .get();
+
+  const byTmdbId = new Map();
+  snapshot.forEach((doc) => {
+    const tmdbId = doc.get("tmdbId");
+    if (typeof tmdbId !== "number") {
+      return;
+    }
+    if (!byTmdbId.has(tmdbId)) {
+      byTmdbId.set(tmdbId, []);
+    }
+    byTmdbId.get(tmdbId).push(doc);
+  });
 
-      // STEP 3: Find the movie document with this tmdbId
-      console.log(`\n=== FINDING movie document with tmdbId=${tmdbId} ===`);
+  const counters = { groups: 0, duplicates: 0, ratingsMoved: 0, listEntriesMoved: 0, failed: 0 };
+  for (const [tmdbId, docs] of byTmdbId) {
+    if (docs.length < 2) {
+      continue;
+    }
+    counters.groups++;
+    counters.duplicates += docs.length - 1;
+    try {
+      await mergeMovieGroup(tmdbId, docs, counters);
+    } catch (error) {
+      counters.failed++;
+      console.error(`Could not merge tmdbId=${tmdbId}:`, error);
+    }
+  }
 
-      const movieQuery = await db
-        .collection("movies")
-        .where("tmdbId", "==", tmdbId)
-        .limit(1)
-        .get();
+  const increment = admin.firestore.FieldValue.increment;
+  await db.collection("stats").doc("movieDedupe").set({
+    lastRunAt: admin.firestore.FieldValue.serverTimestamp(),
+    lastRun: { scanned: snapshot.size, ...counters },
+    duplicatesFound: increment(counters.duplicates),
+    groupsMerged: increment(counters.groups - counters.failed),
+    ratingsMoved: increment(counters.ratingsMoved),
+    listEntriesMoved: increment(counters.listEntriesMoved),
+  }, { merge: true });
+
+  console.log("Dedupe finished:", { scanned: snapshot.size, ...counters });
+});
+
+/**
+ * One-off migration that moves every movie still stored under a random id to
+ * its deterministic "tmdb_<id>" document, so clients resolve movies with a
+ * direct get instead of indexing the collection themselves. The new document
+ * starts as a copy of the canonical old one with no ratings; mergeMovieGroup
+ * then moves ratings and list entries over and leaves redirects behind.
+ * Safe to rerun. Admins only.
+ */
+exports.migrateMovieIds = onCall({ timeoutSeconds: 540 }, async (request) => {
+  if (request.auth?.token?.admin !== true) {
+    throw new HttpsError("permission-denied", "Admins only");
+  }
 
-      if (movieQuery.empty) {
-        console.log("⚠️ No movie document found with this tmdbId.");
-        console.log("You may need to create the movie document first.");
-        return null;
-      }
+  const snapshot = await db
+    .collection("movies")
+    .select("tmdbId", "numRatings", "avgRating", "numRankings")
+    .get();
 
-      const movieDoc = movieQuery.docs[0];
-      console.log(`✓ Found movie document: ${movieDoc.id}`);
-
-      // STEP 7: Update the movie document
-      console.log("\n=== UPDATING MOVIE DOCUMENT ===");
-      await movieDoc.ref.update({
-        avgRanking: starRating,
-        numRankings: rankings.length,
-        avgRankIndex: avgRankIndex,
-        percentile: Math.round(percentile * 10) / 10, // Round to 1 decimal
-        lastUpdated: admin.firestore.FieldValue.serverTimestamp()
-      });
+  const byTmdbId = new Map();
+  snapshot.forEach((doc) => {
+    const tmdbId = doc.get("tmdbId");
+    if (typeof tmdbId !== "number") {
+      return;
+    }
+    if (!byTmdbId.has(tmdbId)) {
+      byTmdbId.set(tmdbId, []);
+    }
+    byTmdbId.get(tmdbId).push(doc);
+  });
+
+  const counters = { migrated: 0, created: 0, ratingsMoved: 0, listEntriesMoved: 0, failed: 0 };
+  for (const [tmdbId, docs] of byTmdbId) {
+    const deterministicRef = db.collection("movies").doc(`tmdb_${tmdbId}`);
+    if (docs.every((doc) => doc.id === deterministicRef.id)) {
+      continue;
+    }
+    try {
+      if (!docs.some((doc) => doc.id === deterministicRef.id)) {
+        const source = await pickCanonical(tmdbId, docs).ref.get();
+        try {
+          // Ratings are added back as mergeMovieGroup moves them
+          await deterministicRef.create({ ...source.data(), numRatings: 0, avgRating: 0 });
+          counters.created++;
+        } catch (error) {
+          if (error.code !== 6) { // ALREADY_EXISTS: a client created it meanwhile
+            throw error;
+          }
+        }
+        docs.push(await deterministicRef.get());
+      }
+      await mergeMovieGroup(tmdbId, docs, counters);
+      counters.migrated++;
+    } catch (error) {
+      counters.failed++;
+      console.error(`Could not migrate tmdbId=${tmdbId}:`, error);
+    }
+  }
 
-      console.log("✅ SUCCESS! Updated movie:", {
-        docId: movieDoc.id,
-        tmdbId: tmdbId,
-        starRating: starRating,
-        numRankings: rankings.length,
-        percentile: `${percentile.toFixed(1)}%`
-      });
+  await db.collection("stats").doc("movieIdMigration").set({
+    lastRunAt: admin.firestore.FieldValue.serverTimestamp(),
+    lastRun: { scanned: snapshot.size, ...counters },
+  }, { merge: true });
+
+  console.log("Movie id migration finished:", { scanned: snapshot.size, ...counters });
+  return { scanned: snapshot.size, ...counters };
+});
+
+// Event ids remembered per stats document, so a retried trigger is not counted twice
+const RECENT_STATS_EVENTS = 20;
+
+/**
+ * What one list entry adds to its owner's stats. Watched entries count
+ * towards the ranked total and the genre histogram; wantToWatch entries are
+ * only counted.
+ */
+function statsContribution(list, data) {
+  if (!data) {
+    return null;
+  }
+  if (list === "wantToWatch") {
+    return { wantToWatch: 1, watched: 0, ranked: 0, genre: null };
+  }
+  const genre = typeof data.genre === "string" && data.genre !== "" ? data.genre : null;
+  return { wantToWatch: 0, watched: 1, ranked: data.ranked === true ? 1 : 0, genre: genre };
+}
+
+/**
+ * Converts an event's RFC 3339 time to a Timestamp without losing the
+ * microseconds, which Date would drop, so it compares exactly with read times.
+ */
+function eventTimestamp(time) {
+  const match = /\.(\d+)Z$/.exec(time);
+  const seconds = Math.floor(Date.parse(time.replace(/\.\d+Z$/, "Z")) / 1000);
+  const nanos = match ? Number(match[1].padEnd(9, "0").slice(0, 9)) : 0;
+  return new admin.firestore.Timestamp(seconds, nanos);
+}
+
+/**
+ * Counts a user's lists from scratch, for users whose stats document does
+ * not exist yet. Reads within the transaction so a concurrent write either
+ * lands before the count or retries it. Also returns countedAt, the time the
+ * lists were read at: writes committed by then are in the count, and their
+ * triggers, which may still be on their way, must not apply them again.
+ */
+async function countUserStats(tx, userRef) {
+  const watched = await tx.get(userRef.collection("watched").select("ranked", "genre"));
+  const wantToWatch = await tx.get(userRef.collection("wantToWatch").select());
+  const genres = {};
+  let ranked = 0;
+  watched.forEach((doc) => {
+    const contribution = statsContribution("watched", doc.data());
+    ranked += contribution.ranked;
+    if (contribution.genre) {
+      genres[contribution.genre] = (genres[contribution.genre] || 0) + 1;
+    }
+  });
+  return {
+    watched: watched.size,
+    wantToWatch: wantToWatch.size,
+    ranked: ranked,
+    genres: genres,
+    countedAt: watched.readTime,
+  };
+}
+
+/**
+ * Applies one list write to users/{userId}/stats/summary, which the profile
+ * screen reads instead of downloading both lists. Only the difference between
+ * the entry's old and new contribution is applied, so reorders, which change
+ * neither counts nor genres, cost no stats write at all.
+ */
+async function updateUserStats(list, event) {
+  const before = statsContribution(list, event.data?.before?.data());
+  const after = statsContribution(list, event.data?.after?.data());
+
+  const delta = { watched: 0, wantToWatch: 0, ranked: 0 };
+  const genres = new Map();
+  const apply = (contribution, sign) => {
+    if (!contribution) {
+      return;
+    }
+    delta.watched += sign * contribution.watched;
+    delta.wantToWatch += sign * contribution.wantToWatch;
+    delta.ranked += sign * contribution.ranked;
+    if (contribution.genre) {
+      genres.set(contribution.genre, (genres.get(contribution.genre) || 0) + sign);
+    }
+  };
+  apply(before, -1);
+  apply(after, 1);
+  for (const [genre, change] of genres) {
+    if (change === 0) {
+      genres.delete(genre);
+    }
+  }
+  if (delta.watched === 0 && delta.wantToWatch === 0 && delta.ranked === 0 && genres.size === 0) {
+    return null;
+  }
 
-      // STEP 8: Verify the write
-      const verifyDoc = await movieDoc.ref.get();
-      const verifyData = verifyDoc.data();
-      console.log("✓ Verification:", {
-        avgRanking: verifyData.avgRanking,
-        numRankings: verifyData.numRankings,
-        percentile: verifyData.percentile
+  const userRef = db.collection("users").doc(event.params.userId);
+  const statsRef = userRef.collection("stats").doc("summary");
+  await db.runTransaction(async (tx) => {
+    const stats = await tx.get(statsRef);
+    if (!stats.exists) {
+      // The count already includes this write
+      const counts = await countUserStats(tx, userRef);
+      tx.set(statsRef, {
+        ...counts,
+        recentEvents: [event.id],
+        updatedAt: admin.firestore.FieldValue.serverTimestamp(),
       });
+      return;
+    }
 
-      const executionTime = Date.now() - startTime;
-      console.log(`\n⏱️ Total execution time: ${executionTime}ms`);
-
-      return null;
-
-    } catch (error) {
-      console.error("\n❌ === ERROR DETAILS ===");
-      console.error("Error name:", error.name);
-      console.error("Error message:", error.message);
-      console.error("Error code:", error.code);
-      
-      if (error.code === 9) {
-        console.error("\n🔧 SOLUTION: You need to create a Firestore index!");
-        console.error("Check the Firebase Console logs for an index creation link.");
-        console.error("Or manually create a composite index on collection group 'watched' with field 'tmdbId'");
-      }
-      
-      console.error("\nFull error:", error);
-      throw error;
+    const recentEvents = stats.get("recentEvents") || [];
+    if (recentEvents.includes(event.id)) {
+      return;
+    }
+    const countedAt = stats.get("countedAt");
+    if (countedAt && eventTimestamp(event.time).valueOf() <= countedAt.valueOf()) {
+      // Written before the from-scratch count, which already includes it
+      return;
+    }
+    const increment = admin.firestore.FieldValue.increment;
+    const genreUpdates = {};
+    for (const [genre, change] of genres) {
+      genreUpdates[genre] = increment(change);
     }
+    tx.set(statsRef, {
+      watched: increment(delta.watched),
+      wantToWatch: increment(delta.wantToWatch),
+      ranked: increment(delta.ranked),
+      genres: genreUpdates,
+      recentEvents: [...recentEvents, event.id].slice(-RECENT_STATS_EVENTS),
+      updatedAt: admin.firestore.FieldValue.serverTimestamp(),
+    }, { merge: true });
+  });
+  return null;
+}
+
+/**
+ * Keeps a user's stats current as movies are added to, ranked in or removed
+ * from their watched list.
+ */
+exports.updateUserStatsWatched = onDocumentWritten(
+  "users/{userId}/watched/{watchedDocId}",
+  (event) => updateUserStats("watched", event)
+);
+
+/**
+ * Keeps a user's stats current as movies are added to or removed from their
+ * wantToWatch list.
+ */
+exports.updateUserStatsWantToWatch = onDocumentWritten(
+  "users/{userId}/wantToWatch/{wantDocId}",
+  (event) => updateUserStats("wantToWatch", event)
+);
+
+/**
+ * Creates the caller's stats document if the triggers have not yet, for users
+ * whose lists predate them, and returns the stats. The profile screen calls
+ * this on a miss instead of counting each list and genre itself. Triggers
+ * already on their way skip the writes the count includes, by countedAt.
+ */
+exports.initUserStats = onCall(async (request) => {
+  if (!request.auth) {
+    throw new HttpsError("unauthenticated", "Sign in to load stats");
   }
-);
\ No newline at end of file
+
+  const userRef = db.collection("users").doc(request.auth.uid);
+  const statsRef = userRef.collection("stats").doc("summary");
+  const stats = await db.runTransaction(async (tx) => {
+    const existing = await tx.get(statsRef);
+    if (existing.exists) {
+      return existing.data();
+    }
+    const counts = await countUserStats(tx, userRef);
+    tx.set(statsRef, {
+      ...counts,
+      recentEvents: [],
+      updatedAt: admin.firestore.FieldValue.serverTimestamp(),
+    });
+    return counts;
+  });
+
+  return {
+    watched: stats.watched || 0,
+    wantToWatch: stats.wantToWatch || 0,
+    ranked: stats.ranked || 0,
+    genres: stats.genres || {},
+  };
+});